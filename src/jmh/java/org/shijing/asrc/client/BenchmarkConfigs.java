@@ -0,0 +1,47 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.BoolData;
+import org.shijing.asrc.client.model.DoubleData;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+import org.shijing.asrc.client.model.StringData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Synthetic configurations shared by the benchmarks. */
+final class BenchmarkConfigs {
+    private BenchmarkConfigs() {}
+
+    static String key(int i) {
+        return "config." + (i % 16) + ".key_" + i;
+    }
+
+    /**
+     * @param keyCount number of configurations, cycling through all value types
+     * @param generation values of every 100th key differ between generations
+     */
+    static Map<String, IData> configs(int keyCount, int generation) {
+        Map<String, IData> configs = new HashMap<>(keyCount * 4 / 3 + 1);
+        for (int i = 0; i < keyCount; i++) {
+            int value = i % 100 == 0 ? i + generation : i;
+            IData data;
+            switch (i % 4) {
+                case 0:
+                    data = new IntData(value);
+                    break;
+                case 1:
+                    data = new DoubleData(value / 10.0);
+                    break;
+                case 2:
+                    data = value % 2 == 0 ? BoolData.TRUE : BoolData.FALSE;
+                    break;
+                default:
+                    data = new StringData("value_" + value);
+                    break;
+            }
+            configs.put(key(i), data);
+        }
+        return configs;
+    }
+}
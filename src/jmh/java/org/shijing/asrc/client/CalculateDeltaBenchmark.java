@@ -0,0 +1,47 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.IData;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Diffing two configuration maps where 1% of the values changed. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CalculateDeltaBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int keyCount;
+
+    private Map<String, IData> oldConfigs;
+    private Map<String, IData> nowConfigs;
+    private Set<String> keys;
+
+    @Setup
+    public void setup() {
+        oldConfigs = BenchmarkConfigs.configs(keyCount, 0);
+        nowConfigs = BenchmarkConfigs.configs(keyCount, 1);
+        keys = oldConfigs.keySet();
+    }
+
+    @Benchmark
+    public Map<String, DataDelta> calculateDelta() {
+        return RemotePropertiesClient.calculateDelta(oldConfigs, nowConfigs, keys);
+    }
+}
@@ -0,0 +1,81 @@
+package org.shijing.asrc.client;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Getter throughput under multi-threaded read load. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GetterBenchmark {
+    private static final int KEY_COUNT = 10_000;
+
+    private final String intKey = BenchmarkConfigs.key(4);
+    private final String doubleKey = BenchmarkConfigs.key(5);
+    private final String boolKey = BenchmarkConfigs.key(6);
+    private final String stringKey = BenchmarkConfigs.key(7);
+    private final String missingKey = "config.missing";
+    private PropertyHandle intHandle;
+
+    @Setup
+    public void setup() {
+        RemoteProperties.reset();
+        RemoteProperties.updateConfigs(BenchmarkConfigs.configs(KEY_COUNT, 0));
+        intHandle = RemoteProperties.getHandle(intKey);
+    }
+
+    @Benchmark
+    public Optional<Integer> getIntOptional() {
+        return RemoteProperties.getInt(intKey);
+    }
+
+    @Benchmark
+    public int getIntPrimitive() {
+        return RemoteProperties.getInt(intKey, 0);
+    }
+
+    @Benchmark
+    public int getIntMissing() {
+        return RemoteProperties.getInt(missingKey, 0);
+    }
+
+    @Benchmark
+    public int getIntHandle() {
+        return intHandle.getInt(0);
+    }
+
+    @Benchmark
+    public double getDoublePrimitive() {
+        return RemoteProperties.getDouble(doubleKey, 0.0);
+    }
+
+    @Benchmark
+    public boolean getBooleanPrimitive() {
+        return RemoteProperties.getBoolean(boolKey, false);
+    }
+
+    @Benchmark
+    public Optional<String> getStringOptional() {
+        return RemoteProperties.getString(stringKey);
+    }
+
+    @Benchmark
+    public String getStringOrDefault() {
+        return RemoteProperties.getStringOrDefault(stringKey, null);
+    }
+}
@@ -0,0 +1,64 @@
+package org.shijing.asrc.client;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Registering and removing a short-lived listener next to long-lived ones. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ListenerChurnBenchmark {
+    private static final int KEY_COUNT = 1000;
+
+    @Param({"10", "1000", "10000"})
+    public int residentListeners;
+
+    private Object resident;
+
+    @Setup
+    public void setup() {
+        RemoteProperties.reset();
+        RemoteProperties.updateConfigs(BenchmarkConfigs.configs(KEY_COUNT, 0));
+        resident = new Object();
+        for (int i = 0; i < residentListeners; i++) {
+            RemoteProperties.addListener(
+                    resident,
+                    Collections.singleton(BenchmarkConfigs.key(i % KEY_COUNT)),
+                    deltas -> {});
+        }
+    }
+
+    @Benchmark
+    public void addAndRemoveListener() {
+        churn();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addAndRemoveListenerContended() {
+        churn();
+    }
+
+    private void churn() {
+        Object observer = new Object();
+        Set<String> keys = Collections.singleton(BenchmarkConfigs.key(1));
+        RemoteProperties.addListener(observer, keys, deltas -> {});
+        RemoteProperties.removeListeners(observer);
+    }
+}
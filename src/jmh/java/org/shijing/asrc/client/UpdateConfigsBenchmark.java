@@ -0,0 +1,69 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of applying a refresh where 1% of the values changed, with listeners observing 10 keys
+ * each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UpdateConfigsBenchmark {
+    private static final int KEYS_PER_LISTENER = 10;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int keyCount;
+
+    @Param({"1", "100", "10000"})
+    public int listenerCount;
+
+    private Map<String, IData> even;
+    private Map<String, IData> odd;
+    private boolean flip;
+    private Object observer;
+    /** Written by listeners so their work cannot be optimized away. */
+    private volatile int consumed;
+
+    @Setup
+    public void setup() {
+        RemoteProperties.reset();
+        even = BenchmarkConfigs.configs(keyCount, 0);
+        odd = BenchmarkConfigs.configs(keyCount, 1);
+        RemoteProperties.updateConfigs(even);
+
+        observer = new Object();
+        for (int i = 0; i < listenerCount; i++) {
+            Set<String> keys = new HashSet<>();
+            for (int k = 0; k < KEYS_PER_LISTENER; k++) {
+                keys.add(BenchmarkConfigs.key((i * KEYS_PER_LISTENER + k) % keyCount));
+            }
+            RemoteProperties.addListener(observer, keys, deltas -> consumed = deltas.size());
+        }
+    }
+
+    @Benchmark
+    public void updateConfigs() {
+        flip = !flip;
+        RemoteProperties.updateConfigs(flip ? odd : even);
+    }
+}
@@ -0,0 +1,188 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetcher merging the fetches issued within a short window into one batch. Equal contexts in a
+ * batch are fetched once.
+ *
+ * <p>If the delegate is an {@link IBatchFetcher}, a batch is one {@link
+ * IBatchFetcher#fetchAll(List)} call. Otherwise the contexts of a batch are fetched by single
+ * fetches, at most {@code maxConcurrency} of them in flight at a time.
+ *
+ * <p>Share one instance between the {@link RemotePropertiesClient}s to warm many contexts at
+ * once.
+ */
+public class BatchingFetcher implements IFetcher {
+    /** Runs the window timers only, a window is flushed on {@link #EXECUTOR}. */
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("asrc-batch"));
+    /** Issues the batches of expired windows, so a slow delegate delays no other window. */
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(new DaemonThreadFactory("asrc-batch-fetch"));
+
+    private final IFetcher delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final int maxConcurrency;
+
+    /** Fetches of the current window, guarded by {@code this}. */
+    private Map<Map<String, IData>, CompletableFuture<Map<String, IData>>> pending =
+            new LinkedHashMap<>();
+    /** Single fetches waiting for a free slot, guarded by {@code this}. */
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int inFlight = 0;
+
+    /**
+     * @param delegate the fetcher doing the actual fetches
+     * @param window how long to collect fetches before issuing a batch
+     * @param unit unit of {@code window}
+     * @param maxBatchSize a batch is issued right away once it holds this many contexts
+     * @param maxConcurrency most single fetches in flight, used if {@code delegate} is not an
+     *     {@link IBatchFetcher}
+     */
+    public BatchingFetcher(
+            IFetcher delegate, long window, TimeUnit unit, int maxBatchSize, int maxConcurrency) {
+        if (maxBatchSize < 1 || maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxBatchSize and maxConcurrency must be positive");
+        }
+        this.delegate = delegate;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, IData>> fetch(Map<String, IData> context) {
+        Map<Map<String, IData>, CompletableFuture<Map<String, IData>>> batch = null;
+        CompletableFuture<Map<String, IData>> future;
+        synchronized (this) {
+            future = pending.get(context);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                pending.put(Collections.unmodifiableMap(new HashMap<>(context)), future);
+                if (pending.size() >= maxBatchSize) {
+                    batch = takePending();
+                } else if (pending.size() == 1) {
+                    Map<Map<String, IData>, CompletableFuture<Map<String, IData>>> window =
+                            pending;
+                    SCHEDULER.schedule(
+                            () -> EXECUTOR.execute(() -> flush(window)),
+                            windowNanos,
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        if (batch != null) {
+            issue(batch);
+        }
+        return future.thenApply(configs -> configs);
+    }
+
+    /** Issue the batch of a window unless it has been issued already for being full. */
+    private void flush(Map<Map<String, IData>, CompletableFuture<Map<String, IData>>> window) {
+        synchronized (this) {
+            if (window != pending) {
+                return;
+            }
+            takePending();
+        }
+        issue(window);
+    }
+
+    private Map<Map<String, IData>, CompletableFuture<Map<String, IData>>> takePending() {
+        Map<Map<String, IData>, CompletableFuture<Map<String, IData>>> batch = pending;
+        pending = new LinkedHashMap<>();
+        return batch;
+    }
+
+    private void issue(Map<Map<String, IData>, CompletableFuture<Map<String, IData>>> batch) {
+        if (delegate instanceof IBatchFetcher) {
+            List<Map<String, IData>> contexts = new ArrayList<>(batch.keySet());
+            List<CompletableFuture<Map<String, IData>>> futures = new ArrayList<>(batch.values());
+            CompletableFuture<List<Map<String, IData>>> fetched;
+            try {
+                fetched = ((IBatchFetcher) delegate).fetchAll(contexts);
+            } catch (RuntimeException e) {
+                futures.forEach(future -> future.completeExceptionally(e));
+                return;
+            }
+            fetched.whenComplete(
+                    (configs, e) -> {
+                        if (e == null && (configs == null || configs.size() != contexts.size())) {
+                            e =
+                                    new IllegalStateException(
+                                            "Fetched "
+                                                    + (configs == null ? "no" : configs.size())
+                                                    + " configs for "
+                                                    + contexts.size()
+                                                    + " contexts");
+                        }
+                        for (int i = 0; i < futures.size(); i++) {
+                            if (e != null) {
+                                futures.get(i).completeExceptionally(e);
+                            } else {
+                                futures.get(i).complete(configs.get(i));
+                            }
+                        }
+                    });
+        } else {
+            batch.forEach((context, future) -> submit(() -> fetchSingle(context, future)));
+        }
+    }
+
+    /** Run {@code task} once fewer than {@code maxConcurrency} single fetches are in flight. */
+    private void submit(Runnable task) {
+        synchronized (this) {
+            if (inFlight >= maxConcurrency) {
+                waiting.add(task);
+                return;
+            }
+            inFlight++;
+        }
+        task.run();
+    }
+
+    private void fetchSingle(
+            Map<String, IData> context, CompletableFuture<Map<String, IData>> future) {
+        CompletableFuture<Map<String, IData>> fetched;
+        try {
+            fetched = delegate.fetch(context);
+        } catch (RuntimeException e) {
+            fetched = new CompletableFuture<>();
+            fetched.completeExceptionally(e);
+        }
+        fetched.whenComplete(
+                (configs, e) -> {
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(configs);
+                    }
+                    Runnable next;
+                    synchronized (this) {
+                        next = waiting.poll();
+                        if (next == null) {
+                            inFlight--;
+                        }
+                    }
+                    if (next != null) {
+                        next.run();
+                    }
+                });
+    }
+}
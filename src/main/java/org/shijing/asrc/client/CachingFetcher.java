@@ -0,0 +1,175 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Fetcher caching the configurations of recently fetched contexts, so that switching back to a
+ * context does not wait for a round trip.
+ *
+ * <p>Configurations younger than the TTL are served from the cache. Past the TTL and within the
+ * stale window they are still served from the cache while a background fetch refreshes them.
+ * Older configurations are fetched again. The least recently used context is evicted once the
+ * cache is full. Concurrent fetches of the same context share one delegate fetch.
+ */
+public class CachingFetcher implements IFetcher {
+    private final IFetcher delegate;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final LongSupplier nanoClock;
+
+    /** Cached configurations in access order, guarded by {@code this}. */
+    private final LinkedHashMap<Map<String, IData>, CachedConfigs> entries;
+    private final ConcurrentHashMap<Map<String, IData>, CompletableFuture<Map<String, IData>>>
+            inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class CachedConfigs {
+        final Map<String, IData> configs;
+        final long fetchedAt;
+
+        CachedConfigs(Map<String, IData> configs, long fetchedAt) {
+            this.configs = configs;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    /**
+     * @param delegate the fetcher doing the actual fetches
+     * @param maxEntries most contexts cached
+     * @param ttl how long fetched configurations are served without a refresh
+     * @param staleWindow how long past {@code ttl} configurations are served while refreshing
+     * @param unit unit of {@code ttl} and {@code staleWindow}
+     */
+    public CachingFetcher(
+            IFetcher delegate, int maxEntries, long ttl, long staleWindow, TimeUnit unit) {
+        this(delegate, maxEntries, ttl, staleWindow, unit, System::nanoTime);
+    }
+
+    CachingFetcher(
+            IFetcher delegate,
+            int maxEntries,
+            long ttl,
+            long staleWindow,
+            TimeUnit unit,
+            LongSupplier nanoClock) {
+        if (maxEntries < 1 || ttl < 0 || staleWindow < 0) {
+            throw new IllegalArgumentException("Invalid cache bounds");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.staleNanos = unit.toNanos(staleWindow);
+        this.nanoClock = nanoClock;
+        this.entries =
+                new LinkedHashMap<Map<String, IData>, CachedConfigs>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<Map<String, IData>, CachedConfigs> eldest) {
+                        if (size() > CachingFetcher.this.maxEntries) {
+                            evictions.increment();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+    }
+
+    @Override
+    public CompletableFuture<Map<String, IData>> fetch(Map<String, IData> context) {
+        Map<String, IData> key = Collections.unmodifiableMap(new HashMap<>(context));
+        CachedConfigs cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        if (cached != null) {
+            long age = nanoClock.getAsLong() - cached.fetchedAt;
+            if (age < ttlNanos) {
+                hits.increment();
+                return CompletableFuture.completedFuture(cached.configs);
+            }
+            if (age - ttlNanos < staleNanos) {
+                staleHits.increment();
+                refresh(key);
+                return CompletableFuture.completedFuture(cached.configs);
+            }
+        }
+        misses.increment();
+        return refresh(key).thenApply(configs -> configs);
+    }
+
+    /** Fetch configurations of {@code key} into the cache, unless being fetched already. */
+    private CompletableFuture<Map<String, IData>> refresh(Map<String, IData> key) {
+        CompletableFuture<Map<String, IData>> created = new CompletableFuture<>();
+        CompletableFuture<Map<String, IData>> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<Map<String, IData>> fetched;
+        try {
+            fetched = delegate.fetch(key);
+        } catch (RuntimeException e) {
+            fetched = new CompletableFuture<>();
+            fetched.completeExceptionally(e);
+        }
+        fetched.whenComplete(
+                (configs, e) -> {
+                    if (e == null) {
+                        synchronized (this) {
+                            entries.put(key, new CachedConfigs(configs, nanoClock.getAsLong()));
+                        }
+                    }
+                    inFlight.remove(key, created);
+                    if (e != null) {
+                        created.completeExceptionally(e);
+                    } else {
+                        created.complete(configs);
+                    }
+                });
+        return created;
+    }
+
+    /** Drop all cached configurations. */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /** @return number of contexts cached. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return fetches served from the cache within the TTL. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return fetches served from the cache past the TTL, each triggering a refresh. */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    /** @return fetches waiting for the delegate. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return contexts evicted for the cache being full. */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,102 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.DataDelta;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/** A listener registered with {@link RemotePropertiesClient#addListener}. */
+final class Callback {
+    final Observer observer;
+    final Consumer<Map<String, DataDelta>> consumer;
+    final Set<String> observeKeys;
+    /** Pattern of the keys observed besides {@code observeKeys}, null for none. */
+    final KeyPattern pattern;
+    /** Deltas waiting to be consumed, delivered one at a time in the order they are queued. */
+    final ConcurrentLinkedQueue<Map<String, DataDelta>> deliveries =
+            new ConcurrentLinkedQueue<>();
+    final AtomicInteger pendingDeliveries = new AtomicInteger();
+
+    Callback(
+            Observer observer,
+            Consumer<Map<String, DataDelta>> consumer,
+            Set<String> observeKeys,
+            KeyPattern pattern) {
+        this.observer = observer;
+        this.consumer = consumer;
+        this.observeKeys = observeKeys;
+        this.pattern = pattern;
+    }
+
+    /** @return true if the queue was idle and a drain must be scheduled. */
+    boolean enqueue(Map<String, DataDelta> deltas) {
+        deliveries.add(deltas);
+        return pendingDeliveries.getAndIncrement() == 0;
+    }
+
+    /**
+     * Consume queued deltas until the queue is empty. Anything a consumer throws, errors
+     * included, is passed to the uncaught exception handler and does not stop the drain, which
+     * would leave the queue marked busy and the listener without deliveries for good.
+     *
+     * @param metrics sink to report the time spent in the consumer to
+     */
+    void drain(IMetricsSink metrics) {
+        do {
+            Map<String, DataDelta> deltas = deliveries.poll();
+            long start = metrics == IMetricsSink.NOOP ? 0L : System.nanoTime();
+            boolean success = true;
+            try {
+                consumer.accept(deltas);
+            } catch (Throwable e) {
+                success = false;
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+            if (metrics != IMetricsSink.NOOP) {
+                metrics.recordDispatch(System.nanoTime() - start, success);
+            }
+        } while (pendingDeliveries.decrementAndGet() > 0);
+    }
+
+    /**
+     * Weak reference to an object listeners are registered with, holding all callbacks registered
+     * with it. References to the same live object are equal, so the reference of an object is
+     * found by creating another one. Once the object is collected the reference is queued, so its
+     * callbacks are reclaimed without scanning the others.
+     */
+    static final class Observer extends WeakReference<Object> {
+        private final int hash;
+        final Set<Callback> callbacks = ConcurrentHashMap.newKeySet();
+        /** Set once the observer is unregistered, guarded by {@code this}. */
+        boolean removed = false;
+
+        Observer(Object object, ReferenceQueue<Object> queue) {
+            super(object, queue);
+            this.hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Observer) || ((Observer) other).hash != hash) {
+                return false;
+            }
+            Object object = get();
+            return object != null && object == ((Observer) other).get();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.IData;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Response of {@link IDeltaFetcher}: either "not modified", a set of changes against the revision
+ * the client sent, or a complete replacement of all configurations.
+ */
+public final class ConfigPatch {
+    public enum PatchType {
+        NOT_MODIFIED,
+        DELTA,
+        FULL
+    }
+
+    private static final ConfigPatch NOT_MODIFIED =
+            new ConfigPatch(PatchType.NOT_MODIFIED, null, null, null);
+
+    public final PatchType patchType;
+    /** Revision of the configurations after the patch is applied, null if not modified. */
+    public final String revision;
+    /** Changes keyed by configuration key, only set for {@link PatchType#DELTA}. */
+    public final Map<String, DataDelta> deltas;
+    /** All configurations, only set for {@link PatchType#FULL}. */
+    public final Map<String, IData> configs;
+
+    private ConfigPatch(
+            PatchType patchType,
+            String revision,
+            Map<String, DataDelta> deltas,
+            Map<String, IData> configs) {
+        this.patchType = patchType;
+        this.revision = revision;
+        this.deltas = deltas;
+        this.configs = configs;
+    }
+
+    public static ConfigPatch notModified() {
+        return NOT_MODIFIED;
+    }
+
+    /**
+     * @param revision revision of the configurations after the deltas are applied
+     * @param deltas changes to apply, {@link DataDelta.DeltaType#ADDITION} and {@link
+     *     DataDelta.DeltaType#UPDATE} put {@code nowData}, {@link DataDelta.DeltaType#DELETION}
+     *     removes the key, {@link DataDelta.DeltaType#UNCHANGED} is ignored
+     */
+    public static ConfigPatch delta(String revision, Map<String, DataDelta> deltas) {
+        return new ConfigPatch(
+                PatchType.DELTA, revision, Collections.unmodifiableMap(deltas), null);
+    }
+
+    public static ConfigPatch full(String revision, Map<String, IData> configs) {
+        return new ConfigPatch(PatchType.FULL, revision, null, configs);
+    }
+}
@@ -0,0 +1,77 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read view pinned to the configurations in service when it was created. Updates applied later
+ * are not visible through it, so all reads of one request see the same version.
+ *
+ * <p>A view holds only a reference to an immutable snapshot, creating one costs a single
+ * allocation and reads take no lock. Views are thread safe but meant to live for one request or
+ * scope, a long lived view keeps its snapshot from being collected.
+ */
+public final class ConfigView {
+    private final RemotePropertiesClient client;
+    private final Snapshot snapshot;
+
+    ConfigView(RemotePropertiesClient client, Snapshot snapshot) {
+        this.client = client;
+        this.snapshot = snapshot;
+    }
+
+    /** @return version of the pinned configurations. */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /** @return the data of {@code key}, or null if absent. */
+    public IData get(String key) {
+        IData data = snapshot.get(key);
+        if (data == null) {
+            client.recordMiss(key);
+        }
+        return data;
+    }
+
+    /**
+     * Resolve many keys in one pass.
+     *
+     * @return data of the present keys, absent keys are left out
+     */
+    public Map<String, IData> getAll(Set<String> keys) {
+        Map<String, IData> configs = new HashMap<>((int) (keys.size() / 0.75f) + 1);
+        for (String key : keys) {
+            IData data = get(key);
+            if (data != null) {
+                configs.put(key, data);
+            }
+        }
+        return configs;
+    }
+
+    /** @see RemotePropertiesClient#getByPrefix(String) */
+    public Map<String, IData> getByPrefix(String prefix) {
+        return snapshot.withPrefix(prefix);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return snapshot.getInt(key, defaultValue, client);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        return snapshot.getDouble(key, defaultValue, client);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return snapshot.getBoolean(key, defaultValue, client);
+    }
+
+    public String getString(String key, String defaultValue) {
+        IData data = get(key);
+        return data == null ? defaultValue : data.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/** Fetcher that resolves the configurations of many contexts in one round trip. */
+public interface IBatchFetcher extends IFetcher {
+    /**
+     * @param contexts the contexts to fetch configurations for
+     * @return configurations of every context, in the order of {@code contexts}
+     */
+    CompletableFuture<List<Map<String, IData>>> fetchAll(List<Map<String, IData>> contexts);
+
+    @Override
+    default CompletableFuture<Map<String, IData>> fetch(Map<String, IData> context) {
+        return fetchAll(Collections.singletonList(context)).thenApply(configs -> configs.get(0));
+    }
+}
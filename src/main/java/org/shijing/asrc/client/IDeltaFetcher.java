@@ -0,0 +1,33 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fetcher that supports incremental updates. When the configured fetcher implements this
+ * interface, {@link RemoteProperties#updateContext(Map)} calls {@link #fetchDelta(Map, String)}
+ * instead of {@link IFetcher#fetch(Map)}.
+ */
+public interface IDeltaFetcher extends IFetcher {
+    /**
+     * Fetch the changes made since {@code revision}.
+     *
+     * @param context the context to fetch configurations for
+     * @param revision revision of the configurations the client holds, or null if it holds none.
+     *     Implementations must answer with {@link ConfigPatch#full(String, Map)} when they cannot
+     *     compute changes against it, e.g. when the revision was produced for another context.
+     * @return the patch to apply
+     */
+    CompletableFuture<ConfigPatch> fetchDelta(Map<String, IData> context, String revision);
+
+    /**
+     * @return false if {@link #fetchDelta(Map, String)} only ever answers all configurations,
+     *     e.g. for a decorator whose delegate fetches no deltas. The client then streams the
+     *     configurations instead if this fetcher is also an {@link IStreamingFetcher}.
+     */
+    default boolean fetchesDeltas() {
+        return true;
+    }
+}
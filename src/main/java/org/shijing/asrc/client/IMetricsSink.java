@@ -0,0 +1,66 @@
+package org.shijing.asrc.client;
+
+import java.util.Map;
+
+/**
+ * Receives measurements of the client, register one with {@link
+ * RemoteProperties#setMetricsSink(IMetricsSink)}. Nothing is measured while no sink is
+ * registered.
+ *
+ * <p>Methods are called on the threads doing the measured work and must return quickly without
+ * throwing. Aggregating durations into histograms is up to the implementation.
+ */
+public interface IMetricsSink {
+    IMetricsSink NOOP = new IMetricsSink() {};
+
+    /**
+     * A fetch completed.
+     *
+     * @param nanos time from issuing the fetch until its result arrived
+     * @param success false if the fetch completed exceptionally
+     */
+    default void recordFetch(long nanos, boolean success) {}
+
+    /**
+     * A fetch failed and the configurations in service were kept.
+     *
+     * @param stalenessMillis time since the configurations were last refreshed successfully, or
+     *     -1 if they never were
+     */
+    default void recordStaleness(long stalenessMillis) {}
+
+    /**
+     * A new snapshot has been taken into service.
+     *
+     * @param nanos time spent building the snapshot and queueing listener deltas
+     * @param size number of configurations in the snapshot
+     * @param version version of the snapshot
+     */
+    default void recordApply(long nanos, int size, long version) {}
+
+    /**
+     * A listener consumed a batch of deltas.
+     *
+     * @param nanos time spent in the consumer
+     * @param success false if the consumer threw
+     */
+    default void recordDispatch(long nanos, boolean success) {}
+
+    /**
+     * The number of registered listeners changed.
+     *
+     * @param count number of listeners now registered
+     * @param purged number of listeners removed because their observer was garbage collected
+     */
+    default void recordListeners(int count, int purged) {}
+
+    /**
+     * Reported after an applied snapshot if getters fell back to default values since the
+     * previous report. Misses are counted for a bounded number of distinct keys, see {@link
+     * RemotePropertiesClient#getMissCounts()} for the totals.
+     *
+     * @param missCounts per key missed since the previous report, how often a getter fell back to
+     *     the default value because the key was absent
+     */
+    default void recordMisses(Map<String, Long> missCounts) {}
+}
@@ -0,0 +1,38 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Fetcher pushing configurations while they are decoded instead of returning them as one map.
+ * When the configured fetcher implements this interface, {@link
+ * RemoteProperties#updateContext(Map)} builds the next snapshot and collects the changed keys as
+ * entries arrive, so a refresh holds the old and the new configurations but no third copy.
+ *
+ * <p>{@link org.shijing.asrc.client.model.DataCodec#decode(java.nio.ByteBuffer, BiConsumer)}
+ * can push a received payload straight to the sink.
+ *
+ * <p>{@link ResilientFetcher} streams if its delegate does. The decorating fetchers {@link
+ * CachingFetcher} and {@link BatchingFetcher} fetch through {@link #fetch(Map)}, so a streaming
+ * fetcher wrapped in one of them is collected into a map first and the client does not take the
+ * streaming path.
+ */
+public interface IStreamingFetcher extends IFetcher {
+    /**
+     * Push all configurations of {@code context} to {@code sink}, from one thread at a time.
+     *
+     * @return future completed once all configurations have been pushed, configurations not
+     *     pushed by then are deleted
+     */
+    CompletableFuture<Void> fetchStream(Map<String, IData> context, BiConsumer<String, IData> sink);
+
+    @Override
+    default CompletableFuture<Map<String, IData>> fetch(Map<String, IData> context) {
+        Map<String, IData> configs = new HashMap<>();
+        return fetchStream(context, configs::put).thenApply(v -> configs);
+    }
+}
@@ -0,0 +1,66 @@
+package org.shijing.asrc.client;
+
+/**
+ * Keys a pattern listener observes: all keys starting with a prefix, or all keys matching a glob
+ * where {@code *} matches any characters and {@code ?} matches one character.
+ */
+final class KeyPattern {
+    /** Literal start every matching key shares, used to look up candidate keys in the index. */
+    final String literalPrefix;
+    /** The glob, or null if the pattern is a plain prefix. */
+    private final String glob;
+
+    private KeyPattern(String literalPrefix, String glob) {
+        this.literalPrefix = literalPrefix;
+        this.glob = glob;
+    }
+
+    static KeyPattern prefix(String prefix) {
+        return new KeyPattern(prefix, null);
+    }
+
+    static KeyPattern glob(String glob) {
+        int wildcard = 0;
+        while (wildcard < glob.length()
+                && glob.charAt(wildcard) != '*'
+                && glob.charAt(wildcard) != '?') {
+            wildcard++;
+        }
+        if (wildcard == glob.length() - 1 && glob.charAt(wildcard) == '*') {
+            return prefix(glob.substring(0, wildcard));
+        }
+        return new KeyPattern(glob.substring(0, wildcard), glob);
+    }
+
+    boolean matches(String key) {
+        if (!key.startsWith(literalPrefix)) {
+            return false;
+        }
+        if (glob == null) {
+            return true;
+        }
+        // Greedy matching, backtracking to the last star on a mismatch.
+        int k = literalPrefix.length();
+        int g = literalPrefix.length();
+        int star = -1;
+        int starKey = 0;
+        while (k < key.length()) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == key.charAt(k))) {
+                k++;
+                g++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                starKey = k;
+            } else if (star >= 0) {
+                g = star + 1;
+                k = ++starKey;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+}
@@ -0,0 +1,65 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.rules.RuleSet;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Fetcher resolving configurations locally from a {@link RuleSet} downloaded once, so that
+ * fetching any context takes no network round trip.
+ *
+ * <p>Per-request contexts can skip the client altogether and call {@link #evaluate(Map)}.
+ */
+public class LocalEvaluatingFetcher implements IFetcher {
+    private final Supplier<CompletableFuture<RuleSet>> ruleSetLoader;
+    private volatile CompletableFuture<RuleSet> ruleSet;
+
+    /** @param ruleSetLoader downloads the rules, called again only on {@link #reloadRules()}. */
+    public LocalEvaluatingFetcher(Supplier<CompletableFuture<RuleSet>> ruleSetLoader) {
+        this.ruleSetLoader = ruleSetLoader;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, IData>> fetch(Map<String, IData> context) {
+        return loadRules().thenApply(rules -> rules.evaluate(context));
+    }
+
+    /**
+     * Resolve configurations of {@code context} without waiting.
+     *
+     * @throws IllegalStateException if the rules are not downloaded yet
+     */
+    public Map<String, IData> evaluate(Map<String, IData> context) {
+        CompletableFuture<RuleSet> loaded = ruleSet;
+        if (loaded == null || !loaded.isDone() || loaded.isCompletedExceptionally()) {
+            throw new IllegalStateException("Rules are not loaded");
+        }
+        return loaded.join().evaluate(context);
+    }
+
+    /** @return the rules, downloading them unless downloaded already or being downloaded. */
+    public synchronized CompletableFuture<RuleSet> loadRules() {
+        CompletableFuture<RuleSet> loaded = ruleSet;
+        if (loaded == null || loaded.isCompletedExceptionally()) {
+            loaded = ruleSetLoader.get();
+            ruleSet = loaded;
+        }
+        return loaded;
+    }
+
+    /**
+     * Download the rules again, the current rules stay in service until the download succeeds.
+     */
+    public CompletableFuture<RuleSet> reloadRules() {
+        return ruleSetLoader
+                .get()
+                .thenApply(
+                        rules -> {
+                            ruleSet = CompletableFuture.completedFuture(rules);
+                            return rules;
+                        });
+    }
+}
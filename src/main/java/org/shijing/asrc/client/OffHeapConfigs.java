@@ -0,0 +1,496 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.BoolData;
+import org.shijing.asrc.client.model.DataCodec;
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.DoubleData;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+import org.shijing.asrc.client.model.JsonData;
+import org.shijing.asrc.client.model.StringData;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only configurations kept in an open-addressing hash table in a direct buffer, so that a
+ * snapshot of millions of configurations costs a handful of heap objects instead of several per
+ * configuration. Values are decoded on every {@link #get(Object)}, the primitive readers serve
+ * numbers and booleans without decoding them into {@link IData}.
+ *
+ * <p>The buffer starts with {@code capacity} slots of (int hash, int entry offset), offset 0
+ * marks an empty slot, and slots are probed linearly. Entries follow the slots, each is the key
+ * (int length in chars, byte coding, chars) followed by a type tag and the value. Strings are
+ * stored as Latin-1 if possible and as UTF-16 otherwise, so keys are compared with a looked up
+ * key char by char without encoding it.
+ *
+ * <p>Values {@link DataCodec} cannot encode are kept on heap beside the table.
+ *
+ * <p>Every table is a new direct buffer, since pinned views may still read the table it
+ * replaces. The memory of a replaced table is only freed once the GC collects its buffer, so
+ * frequent updates of large tables need {@code -XX:MaxDirectMemorySize} to leave room for a few
+ * tables awaiting collection. Running short of direct memory makes the allocation of a table
+ * request a GC to reclaim them, which {@code -XX:+DisableExplicitGC} prevents.
+ */
+final class OffHeapConfigs extends AbstractMap<String, IData> {
+    private static final int SLOT_BYTES = 8;
+    private static final byte LATIN1 = 0;
+    private static final byte UTF16 = 1;
+
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_JSON = 6;
+
+    private final ByteBuffer table;
+    /** Number of slots, a power of two. */
+    private final int capacity;
+    private final int tableSize;
+    private final Map<String, IData> others;
+
+    private OffHeapConfigs(
+            ByteBuffer table, int capacity, int tableSize, Map<String, IData> others) {
+        this.table = table;
+        this.capacity = capacity;
+        this.tableSize = tableSize;
+        this.others = others;
+    }
+
+    static OffHeapConfigs of(Map<String, IData> configs) {
+        Map<String, IData> others = new HashMap<>();
+        int count = 0;
+        long dataBytes = 0;
+        for (Map.Entry<String, IData> entry : configs.entrySet()) {
+            IData data = entry.getValue();
+            if (data == null) {
+                continue;
+            }
+            if (DataCodec.canEncode(data)) {
+                count++;
+                dataBytes += entryBytes(entry.getKey(), data);
+            } else {
+                others.put(entry.getKey(), data);
+            }
+        }
+        Builder builder = new Builder(count, dataBytes);
+        for (Map.Entry<String, IData> entry : configs.entrySet()) {
+            IData data = entry.getValue();
+            if (data != null && DataCodec.canEncode(data)) {
+                builder.put(entry.getKey(), data);
+            }
+        }
+        return builder.build(others);
+    }
+
+    /**
+     * @return a table holding these configurations with {@code deltas} applied, entries not
+     *     changed by the deltas are copied as they are. {@code UNCHANGED} deltas are ignored, as
+     *     by {@link Snapshot#apply(Map, String)} on heap.
+     */
+    OffHeapConfigs apply(Map<String, DataDelta> deltas) {
+        BitSet replaced = new BitSet(capacity);
+        Map<String, IData> nowOthers = new HashMap<>(others);
+        Map<String, IData> added = new HashMap<>();
+        for (Map.Entry<String, DataDelta> entry : deltas.entrySet()) {
+            DataDelta delta = entry.getValue();
+            if (delta.deltaType == DataDelta.DeltaType.UNCHANGED) {
+                continue;
+            }
+            String key = entry.getKey();
+            int slot = findSlot(key);
+            if (slot >= 0) {
+                replaced.set(slot);
+            }
+            nowOthers.remove(key);
+            IData data = delta.deltaType == DataDelta.DeltaType.DELETION ? null : delta.nowData;
+            if (data != null) {
+                (DataCodec.canEncode(data) ? added : nowOthers).put(key, data);
+            }
+        }
+        int count = added.size();
+        long dataBytes = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int entry = entryAt(slot);
+            if (entry != 0 && !replaced.get(slot)) {
+                count++;
+                dataBytes += entryLength(entry);
+            }
+        }
+        for (Map.Entry<String, IData> entry : added.entrySet()) {
+            dataBytes += entryBytes(entry.getKey(), entry.getValue());
+        }
+        Builder builder = new Builder(count, dataBytes);
+        for (int slot = 0; slot < capacity; slot++) {
+            int entry = entryAt(slot);
+            if (entry != 0 && !replaced.get(slot)) {
+                builder.copy(table, entry, entryLength(entry), table.getInt(slot * SLOT_BYTES));
+            }
+        }
+        added.forEach(builder::put);
+        return builder.build(nowOthers);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean isLatin1(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long stringBytes(String value) {
+        return 5L + (long) value.length() * (isLatin1(value) ? 1 : 2);
+    }
+
+    private static long entryBytes(String key, IData data) {
+        long bytes = stringBytes(key) + 1;
+        if (data instanceof IntData) {
+            bytes += 4;
+        } else if (data instanceof DoubleData) {
+            bytes += 8;
+        } else if (data instanceof StringData) {
+            bytes += stringBytes(data.toString());
+        } else if (data instanceof JsonData) {
+            bytes += 4 + ((JsonData) data).toBytes().length;
+        }
+        return bytes;
+    }
+
+    private int entryAt(int slot) {
+        return table.getInt(slot * SLOT_BYTES + 4);
+    }
+
+    /** @return the slot of {@code key}, or -1 if it is not in the table. */
+    private int findSlot(String key) {
+        int hash = hash(key);
+        int mask = capacity - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = entryAt(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            if (table.getInt(slot * SLOT_BYTES) == hash && keyEquals(entry, key)) {
+                return slot;
+            }
+        }
+    }
+
+    /** @return offset of the entry of {@code key}, or -1 if it is not in the table. */
+    int find(String key) {
+        int slot = findSlot(key);
+        return slot < 0 ? -1 : entryAt(slot);
+    }
+
+    private boolean keyEquals(int entry, String key) {
+        int length = table.getInt(entry);
+        if (length != key.length()) {
+            return false;
+        }
+        int chars = entry + 5;
+        if (table.get(entry + 4) == LATIN1) {
+            for (int i = 0; i < length; i++) {
+                if ((table.get(chars + i) & 0xff) != key.charAt(i)) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (table.getChar(chars + 2 * i) != key.charAt(i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** @return offset of the type tag of an entry. */
+    private int valueOffset(int entry) {
+        return entry + 5 + table.getInt(entry) * (table.get(entry + 4) == LATIN1 ? 1 : 2);
+    }
+
+    private int entryLength(int entry) {
+        int value = valueOffset(entry);
+        int payload;
+        switch (table.get(value)) {
+            case TAG_INT:
+                payload = 4;
+                break;
+            case TAG_DOUBLE:
+                payload = 8;
+                break;
+            case TAG_STRING:
+                payload =
+                        5 + table.getInt(value + 1) * (table.get(value + 5) == LATIN1 ? 1 : 2);
+                break;
+            case TAG_JSON:
+                payload = 4 + table.getInt(value + 1);
+                break;
+            default:
+                payload = 0;
+                break;
+        }
+        return value + 1 + payload - entry;
+    }
+
+    private String readString(int offset) {
+        int length = table.getInt(offset);
+        char[] chars = new char[length];
+        int start = offset + 5;
+        if (table.get(offset + 4) == LATIN1) {
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (table.get(start + i) & 0xff);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = table.getChar(start + 2 * i);
+            }
+        }
+        return new String(chars);
+    }
+
+    private IData decode(int entry) {
+        int value = valueOffset(entry);
+        switch (table.get(value)) {
+            case TAG_FALSE:
+                return BoolData.FALSE;
+            case TAG_TRUE:
+                return BoolData.TRUE;
+            case TAG_INT:
+                return IntData.valueOf(table.getInt(value + 1));
+            case TAG_DOUBLE:
+                return new DoubleData(table.getDouble(value + 1));
+            case TAG_STRING:
+                return new StringData(readString(value + 1));
+            case TAG_JSON:
+                byte[] json = new byte[table.getInt(value + 1)];
+                ByteBuffer source = table.duplicate();
+                source.position(value + 5);
+                source.get(json);
+                return new JsonData(json);
+            default:
+                throw new IllegalStateException("Corrupted off-heap table at " + entry);
+        }
+    }
+
+    /**
+     * @return true if the value of the entry is a number or boolean, readable by {@link
+     *     #intAt(int)}, {@link #doubleAt(int)} and {@link #booleanAt(int)}
+     */
+    boolean isPrimitive(int entry) {
+        byte tag = table.get(valueOffset(entry));
+        return tag == TAG_FALSE || tag == TAG_TRUE || tag == TAG_INT || tag == TAG_DOUBLE;
+    }
+
+    /** Same as {@link IData#toInt()} of the value, which must be primitive. */
+    int intAt(int entry) {
+        int value = valueOffset(entry);
+        switch (table.get(value)) {
+            case TAG_INT:
+                return table.getInt(value + 1);
+            case TAG_DOUBLE:
+                return (int) table.getDouble(value + 1);
+            default:
+                return table.get(value) == TAG_TRUE ? 1 : 0;
+        }
+    }
+
+    /** Same as {@link IData#toDouble()} of the value, which must be primitive. */
+    double doubleAt(int entry) {
+        int value = valueOffset(entry);
+        switch (table.get(value)) {
+            case TAG_INT:
+                return table.getInt(value + 1);
+            case TAG_DOUBLE:
+                return table.getDouble(value + 1);
+            default:
+                return table.get(value) == TAG_TRUE ? 1.0 : 0.0;
+        }
+    }
+
+    /** Same as {@link IData#toBool()} of the value, which must be primitive. */
+    boolean booleanAt(int entry) {
+        int value = valueOffset(entry);
+        switch (table.get(value)) {
+            case TAG_INT:
+                return table.getInt(value + 1) != 0;
+            case TAG_DOUBLE:
+                return table.getDouble(value + 1) != 0;
+            default:
+                return table.get(value) == TAG_TRUE;
+        }
+    }
+
+    @Override
+    public int size() {
+        return tableSize + others.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public IData get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int entry = find((String) key);
+        return entry >= 0 ? decode(entry) : others.get(key);
+    }
+
+    @Override
+    public Set<Entry<String, IData>> entrySet() {
+        return new AbstractSet<Entry<String, IData>>() {
+            @Override
+            public int size() {
+                return OffHeapConfigs.this.size();
+            }
+
+            @Override
+            public Iterator<Entry<String, IData>> iterator() {
+                return new Iterator<Entry<String, IData>>() {
+                    private final Iterator<Entry<String, IData>> onHeap =
+                            others.entrySet().iterator();
+                    private int slot = nextSlot(0);
+
+                    private int nextSlot(int from) {
+                        while (from < capacity && entryAt(from) == 0) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < capacity || onHeap.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, IData> next() {
+                        if (slot >= capacity) {
+                            if (!onHeap.hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            return onHeap.next();
+                        }
+                        int entry = entryAt(slot);
+                        slot = nextSlot(slot + 1);
+                        return new SimpleImmutableEntry<>(readString(entry), decode(entry));
+                    }
+                };
+            }
+        };
+    }
+
+    /** Writes entries into a new table sized for a known number of entries and bytes. */
+    private static final class Builder {
+        private final ByteBuffer table;
+        private final int capacity;
+        private int size = 0;
+        private int position;
+
+        Builder(int count, long dataBytes) {
+            int slots = 2;
+            while (slots < count * 2L) {
+                slots <<= 1;
+            }
+            long bytes = (long) slots * SLOT_BYTES + dataBytes;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Configurations exceed 2GB off-heap");
+            }
+            this.capacity = slots;
+            this.table = ByteBuffer.allocateDirect((int) bytes);
+            this.position = slots * SLOT_BYTES;
+        }
+
+        void put(String key, IData data) {
+            int entry = position;
+            writeString(key);
+            if (data instanceof BoolData) {
+                table.put(position++, data.toBool() ? TAG_TRUE : TAG_FALSE);
+            } else if (data instanceof IntData) {
+                table.put(position, TAG_INT).putInt(position + 1, data.toInt());
+                position += 5;
+            } else if (data instanceof DoubleData) {
+                table.put(position, TAG_DOUBLE).putDouble(position + 1, data.toDouble());
+                position += 9;
+            } else if (data instanceof StringData) {
+                table.put(position++, TAG_STRING);
+                writeString(data.toString());
+            } else {
+                byte[] json = ((JsonData) data).toBytes();
+                table.put(position, TAG_JSON).putInt(position + 1, json.length);
+                ByteBuffer target = table.duplicate();
+                target.position(position + 5);
+                target.put(json);
+                position += 5 + json.length;
+            }
+            link(hash(key), entry);
+        }
+
+        /** Copy an encoded entry of another table. */
+        void copy(ByteBuffer from, int entry, int length, int hash) {
+            ByteBuffer source = from.duplicate();
+            source.position(entry).limit(entry + length);
+            ByteBuffer target = table.duplicate();
+            target.position(position);
+            target.put(source);
+            link(hash, position);
+            position += length;
+        }
+
+        private void writeString(String value) {
+            int length = value.length();
+            table.putInt(position, length);
+            if (isLatin1(value)) {
+                table.put(position + 4, LATIN1);
+                for (int i = 0; i < length; i++) {
+                    table.put(position + 5 + i, (byte) value.charAt(i));
+                }
+                position += 5 + length;
+            } else {
+                table.put(position + 4, UTF16);
+                for (int i = 0; i < length; i++) {
+                    table.putChar(position + 5 + 2 * i, value.charAt(i));
+                }
+                position += 5 + 2 * length;
+            }
+        }
+
+        private void link(int hash, int entry) {
+            int mask = capacity - 1;
+            int slot = hash & mask;
+            while (table.getInt(slot * SLOT_BYTES + 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table.putInt(slot * SLOT_BYTES, hash);
+            table.putInt(slot * SLOT_BYTES + 4, entry);
+            size++;
+        }
+
+        OffHeapConfigs build(Map<String, IData> others) {
+            return new OffHeapConfigs(
+                    table,
+                    capacity,
+                    size,
+                    others.isEmpty() ? Collections.emptyMap() : others);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+/**
+ * A pre-resolved reference to a single configuration. The key is looked up once per snapshot,
+ * reads in between return the cached value without hashing the key or allocating.
+ *
+ * <p>Handles are thread safe and meant to be created once and kept, e.g. in a static field.
+ */
+public final class PropertyHandle {
+    /** The value of the key in one particular snapshot. */
+    private static final class Binding {
+        final Snapshot snapshot;
+        final IData data;
+
+        Binding(Snapshot snapshot, IData data) {
+            this.snapshot = snapshot;
+            this.data = data;
+        }
+    }
+
+    private final RemotePropertiesClient client;
+    private final String key;
+    private volatile Binding binding;
+
+    PropertyHandle(RemotePropertiesClient client, String key) {
+        this.client = client;
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    private IData resolve() {
+        Snapshot snapshot = client.snapshot;
+        Binding current = binding;
+        if (current == null || current.snapshot != snapshot) {
+            current = new Binding(snapshot, snapshot.get(key));
+            binding = current;
+        }
+        return current.data;
+    }
+
+    /** @return true if the key is present in the configurations currently in service. */
+    public boolean isPresent() {
+        return resolve() != null;
+    }
+
+    public int getInt(int defaultValue) {
+        IData data = resolve();
+        if (data == null) {
+            client.recordMiss(key);
+            return defaultValue;
+        }
+        return data.isInt() ? data.toInt() : defaultValue;
+    }
+
+    public double getDouble(double defaultValue) {
+        IData data = resolve();
+        if (data == null) {
+            client.recordMiss(key);
+            return defaultValue;
+        }
+        return data.isDouble() ? data.toDouble() : defaultValue;
+    }
+
+    public boolean getBoolean(boolean defaultValue) {
+        IData data = resolve();
+        if (data == null) {
+            client.recordMiss(key);
+            return defaultValue;
+        }
+        return data.toBool();
+    }
+
+    public String getString(String defaultValue) {
+        IData data = resolve();
+        if (data == null) {
+            client.recordMiss(key);
+            return defaultValue;
+        }
+        return data.toString();
+    }
+}
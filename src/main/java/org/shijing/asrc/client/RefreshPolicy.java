@@ -0,0 +1,57 @@
+package org.shijing.asrc.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** How often {@link RemoteProperties} refreshes configurations in the background. */
+public final class RefreshPolicy {
+    private static final double DEFAULT_JITTER = 0.2;
+    private static final int DEFAULT_MAX_BACKOFF_MULTIPLIER = 16;
+
+    final long intervalMillis;
+    final double jitter;
+    final long maxBackoffMillis;
+
+    /**
+     * @param interval time between two successful refreshes
+     * @param jitter fraction of the delay to randomize in both directions, within [0, 1), so that
+     *     many clients started together do not refresh in lockstep
+     * @param maxBackoff upper bound of the delay after consecutive failures, the delay doubles
+     *     with every failure until it reaches this bound
+     * @param unit unit of {@code interval} and {@code maxBackoff}
+     */
+    public RefreshPolicy(long interval, double jitter, long maxBackoff, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("jitter must be within [0, 1): " + jitter);
+        }
+        this.intervalMillis = unit.toMillis(interval);
+        this.jitter = jitter;
+        this.maxBackoffMillis = Math.max(intervalMillis, unit.toMillis(maxBackoff));
+    }
+
+    /**
+     * Refresh every {@code interval} with 20% jitter, backing off up to 16 times the interval on
+     * failures.
+     */
+    public static RefreshPolicy every(long interval, TimeUnit unit) {
+        return new RefreshPolicy(
+                interval, DEFAULT_JITTER, interval * DEFAULT_MAX_BACKOFF_MULTIPLIER, unit);
+    }
+
+    /**
+     * @param consecutiveFailures number of refreshes failed in a row, 0 after a success
+     * @return delay before the next refresh in milliseconds
+     */
+    long nextDelayMillis(int consecutiveFailures) {
+        long delay = intervalMillis;
+        for (int i = 0; i < consecutiveFailures && delay < maxBackoffMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxBackoffMillis);
+        double factor = 1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1L, (long) (delay * factor));
+    }
+}
@@ -0,0 +1,65 @@
+package org.shijing.asrc.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs a refresh repeatedly following a {@link RefreshPolicy}. The next refresh is scheduled only
+ * after the previous one completes, so refreshes never overlap.
+ */
+final class RefreshScheduler {
+    private final ScheduledExecutorService executor;
+    private final RefreshPolicy policy;
+    private final Supplier<CompletableFuture<Void>> refresh;
+    private int consecutiveFailures = 0;
+    private volatile boolean stopped = false;
+    private volatile ScheduledFuture<?> next;
+
+    RefreshScheduler(
+            ScheduledExecutorService executor,
+            RefreshPolicy policy,
+            Supplier<CompletableFuture<Void>> refresh) {
+        this.executor = executor;
+        this.policy = policy;
+        this.refresh = refresh;
+    }
+
+    void start() {
+        schedule(policy.nextDelayMillis(0));
+    }
+
+    void stop() {
+        stopped = true;
+        ScheduledFuture<?> scheduled = next;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        if (!stopped) {
+            next = executor.schedule(this::run, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run() {
+        if (stopped) {
+            return;
+        }
+        CompletableFuture<Void> future;
+        try {
+            future = refresh.get();
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete(
+                (v, e) -> {
+                    consecutiveFailures = e == null ? 0 : consecutiveFailures + 1;
+                    schedule(policy.nextDelayMillis(consecutiveFailures));
+                });
+    }
+}
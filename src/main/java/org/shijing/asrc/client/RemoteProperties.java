@@ -4,44 +4,28 @@ package org.shijing.asrc.client;
 import org.shijing.asrc.client.model.DataDelta;
 import org.shijing.asrc.client.model.IData;
 
-import static org.shijing.asrc.client.model.DataDelta.DeltaType.ADDITION;
-import static org.shijing.asrc.client.model.DataDelta.DeltaType.DELETION;
-import static org.shijing.asrc.client.model.DataDelta.DeltaType.UPDATE;
-
-import java.lang.ref.WeakReference;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
+/**
+ * Static facade over a default {@link RemotePropertiesClient}, for applications holding the
+ * configurations of a single context.
+ */
 public class RemoteProperties {
-    private static class Callback {
-        final WeakReference<Object> observer;
-        final Consumer<Map<String, DataDelta>> consumer;
-        final Set<String> observeKeys;
-
-        Callback(
-                WeakReference<Object> observer,
-                Consumer<Map<String, DataDelta>> consumer,
-                Set<String> observeKeys) {
-            this.observer = observer;
-            this.consumer = consumer;
-            this.observeKeys = observeKeys;
-        }
-    }
-
-    private static IContextProvider CONTEXT_PROVIDER = null;
-    private static IFetcher CONFIG_FETCHER = null;
-    static final ConcurrentHashMap<String, IData> PROPERTIES_CACHE = new ConcurrentHashMap<>();
-    static final ConcurrentLinkedQueue<Callback> LISTENERS = new ConcurrentLinkedQueue<>();
-    static final ConcurrentHashMap<String, Boolean> OBSERVED_KEYS = new ConcurrentHashMap<>();
+    static final RemotePropertiesClient DEFAULT = new RemotePropertiesClient();
+    /** Inverted index from an observed key to all callbacks observing it. */
+    static final ConcurrentHashMap<String, Set<Callback>> OBSERVED_KEYS = DEFAULT.observedKeys;
+
+    /** @return the client behind this facade. */
+    public static RemotePropertiesClient getDefaultClient() {
+        return DEFAULT;
+    }
 
     /**
      * Set up Remote Property and
@@ -51,70 +35,38 @@ public class RemoteProperties {
      * @return
      */
     public static CompletableFuture<Void> init(IContextProvider contextProvider, IFetcher fetcher) {
-        CONTEXT_PROVIDER = contextProvider;
-        CONFIG_FETCHER = fetcher;
-        return updateContext(contextProvider.getContext());
+        return DEFAULT.init(contextProvider, fetcher);
+    }
+
+    /** @see RemotePropertiesClient#init(IContextProvider, IFetcher, Path) */
+    public static CompletableFuture<Void> init(
+            IContextProvider contextProvider, IFetcher fetcher, Path snapshotFile) {
+        return DEFAULT.init(contextProvider, fetcher, snapshotFile);
+    }
+
+    /** @see RemotePropertiesClient#setSnapshotFile(Path) */
+    public static void setSnapshotFile(Path snapshotFile) {
+        DEFAULT.setSnapshotFile(snapshotFile);
+    }
+
+    /** @see RemotePropertiesClient#setOffHeapStorage(boolean) */
+    public static void setOffHeapStorage(boolean offHeap) {
+        DEFAULT.setOffHeapStorage(offHeap);
     }
 
     /** Reset cache, listeners and observers. */
     static void reset() {
-        PROPERTIES_CACHE.clear();
-        LISTENERS.clear();
-        OBSERVED_KEYS.clear();
+        DEFAULT.reset();
     }
 
-    /**
-     * For each key in the lookupKeys, calculate the data change in {@code oldConfigs} and {@code
-     * nowConfigs}.
-     *
-     * @param oldConfigs configs to which {@code nowConfigs} is compared
-     * @param nowConfigs configs which is compared to the {@code oldConfigs}
-     * @param lookupKeys a set of keys only within which the delta is calculated
-     * @return deltas
-     */
-    private static Map<String, DataDelta> calculateDelta(
-            Map<String, IData> oldConfigs, Map<String, IData> nowConfigs, Set<String> lookupKeys) {
-        Map<String, DataDelta> deltas = new HashMap<>();
-        for (String key : lookupKeys) {
-            IData oldData = oldConfigs.get(key);
-            IData nowData = nowConfigs.get(key);
-            DataDelta.DeltaType deltaType;
-            if (oldData == null && nowData == null) {
-                // no-op in case of no change
-            } else if (nowData == null) { // deletion case
-                deltas.put(key, new DataDelta(oldData, nowData, DELETION));
-            } else if (!nowData.equals(oldData)) { // addition or change case
-                deltas.put(
-                        key, new DataDelta(oldData, nowData, oldData == null ? ADDITION : UPDATE));
-            }
-            // else { skip the un-change case }
-        }
-        return deltas;
+    /** @see RemotePropertiesClient#updateConfigs(Map) */
+    public static void updateConfigs(Map<String, IData> configs) {
+        DEFAULT.updateConfigs(configs);
     }
 
-    public static void updateConfigs(Map<String, IData> configs) {
-        Map<String, IData> oldProperties = new HashMap<>(PROPERTIES_CACHE);
-
-        PROPERTIES_CACHE.clear();
-        PROPERTIES_CACHE.putAll(configs);
-
-        Set<String> nowObservedKeys = new HashSet<>();
-        Iterator<Callback> iterator = LISTENERS.iterator();
-        while (iterator.hasNext()) {
-            Callback callback = iterator.next();
-            if (callback.observer.get() == null) {
-                iterator.remove();
-            } else {
-                nowObservedKeys.addAll(callback.observeKeys);
-                Map<String, DataDelta> deletas =
-                        calculateDelta(oldProperties, configs, callback.observeKeys);
-                if (!deletas.isEmpty()) {
-                    callback.consumer.accept(deletas);
-                }
-            }
-        }
-        OBSERVED_KEYS.clear();
-        nowObservedKeys.forEach(k -> OBSERVED_KEYS.put(k, true));
+    /** @return version of the configurations currently in service, increases on every update. */
+    public static long getVersion() {
+        return DEFAULT.getVersion();
     }
 
     /**
@@ -122,51 +74,79 @@ public class RemoteProperties {
      * registered callbacks
      *
      * @param context
+     * @see RemotePropertiesClient#updateContext(Map)
      */
     public static CompletableFuture<Void> updateContext(Map<String, IData> context) {
-        if (CONFIG_FETCHER != null) {
-            return CONFIG_FETCHER.fetch(context).thenAcceptAsync(RemoteProperties::updateConfigs);
-        }
-        return CompletableFuture.completedFuture(null);
+        return DEFAULT.updateContext(context);
+    }
+
+    /** @see RemotePropertiesClient#startRefresh(RefreshPolicy) */
+    public static void startRefresh(RefreshPolicy policy) {
+        DEFAULT.startRefresh(policy);
+    }
+
+    /** @see RemotePropertiesClient#stopRefresh() */
+    public static void stopRefresh() {
+        DEFAULT.stopRefresh();
+    }
+
+    /** @see RemotePropertiesClient#getStalenessMillis() */
+    public static long getStalenessMillis() {
+        return DEFAULT.getStalenessMillis();
     }
 
     public static void setFetcher(IFetcher fetcher) {
-        CONFIG_FETCHER = fetcher;
+        DEFAULT.setFetcher(fetcher);
+    }
+
+    /** @see RemotePropertiesClient#setListenerExecutor(Executor) */
+    public static void setListenerExecutor(Executor executor) {
+        DEFAULT.setListenerExecutor(executor);
+    }
+
+    /** @see RemotePropertiesClient#getPendingDeliveries() */
+    public static int getPendingDeliveries() {
+        return DEFAULT.getPendingDeliveries();
+    }
+
+    /** @see RemotePropertiesClient#getMaxPendingDeliveries() */
+    public static int getMaxPendingDeliveries() {
+        return DEFAULT.getMaxPendingDeliveries();
+    }
+
+    /** @see RemotePropertiesClient#setMetricsSink(IMetricsSink) */
+    public static void setMetricsSink(IMetricsSink sink) {
+        DEFAULT.setMetricsSink(sink);
+    }
+
+    /** @see RemotePropertiesClient#getMissCounts() */
+    public static Map<String, Long> getMissCounts() {
+        return DEFAULT.getMissCounts();
     }
 
     /**
      * Observe on changes to configurations of `observedKeys`, can exec callback if and only if
      * the configuration value is changed.
      *
-     * Be noted that this method does not check for duplicates, if one callback is registered multiple times,
-     * it will be called multiple times as well when new configs are received.
-     *
-     * @param object (Nonnull) anchor  that all data consumers are registered with. It is used for
-     *                 callback clean up:
-     *                 1. The objectReference holds an observer object which if is gc-ed, all its associated
-     *                 callbacks will be invalidated and cleaned.
-     *                 2. When {@code removeListeners is called, all registered callbacks will be removed.
-     * @param observedKeys
-     * @param dataConsumer
+     * @see RemotePropertiesClient#addListener(Object, Set, Consumer)
      */
-    public static synchronized void addListener(
+    public static void addListener(
             Object object,
             Set<String> observedKeys,
             Consumer<Map<String, DataDelta>> dataConsumer) {
+        DEFAULT.addListener(object, observedKeys, dataConsumer);
+    }
 
-        removeListeners(null);
-        Map<String, IData> configs = new HashMap<>();
-        for (String key : observedKeys) {
-            OBSERVED_KEYS.put(key, true);
-            IData data = PROPERTIES_CACHE.get(key);
-            if (data != null) {
-                configs.put(key, data);
-            }
-        }
-        if (configs.size() > 0) {
-            dataConsumer.accept(calculateDelta(Collections.emptyMap(), configs, observedKeys));
-        }
-        LISTENERS.add(new Callback(new WeakReference<>(object), dataConsumer, observedKeys));
+    /** @see RemotePropertiesClient#addPrefixListener(Object, String, Consumer) */
+    public static void addPrefixListener(
+            Object object, String prefix, Consumer<Map<String, DataDelta>> dataConsumer) {
+        DEFAULT.addPrefixListener(object, prefix, dataConsumer);
+    }
+
+    /** @see RemotePropertiesClient#addPatternListener(Object, String, Consumer) */
+    public static void addPatternListener(
+            Object object, String glob, Consumer<Map<String, DataDelta>> dataConsumer) {
+        DEFAULT.addPatternListener(object, glob, dataConsumer);
     }
 
     /**
@@ -174,55 +154,75 @@ public class RemoteProperties {
      *
      * @param object the observer to remove, or null if we went to purge dead listeners.
      */
-    public static synchronized void removeListeners(Object object) {
-        Set<String> nowObservedKeys = new HashSet<>();
-        Iterator<Callback> iter = LISTENERS.iterator();
-        while (iter.hasNext()) {
-            Callback callback = iter.next();
-            Object stored = callback.observer.get();
-            if (stored == null || stored == object) {
-                iter.remove();
-            } else {
-                nowObservedKeys.addAll(callback.observeKeys);
-            }
-        }
-        OBSERVED_KEYS.clear();
-        nowObservedKeys.forEach(k -> OBSERVED_KEYS.put(k, true));
-    }
-
-    public static synchronized void removeAllListeners() {
-        LISTENERS.clear();
+    public static void removeListeners(Object object) {
+        DEFAULT.removeListeners(object);
+    }
+
+    public static void removeAllListeners() {
+        DEFAULT.removeAllListeners();
+    }
+
+    /** @see RemotePropertiesClient#getHandle(String) */
+    public static PropertyHandle getHandle(String key) {
+        return DEFAULT.getHandle(key);
+    }
+
+    /** @see RemotePropertiesClient#pin() */
+    public static ConfigView pin() {
+        return DEFAULT.pin();
+    }
+
+    /** @see RemotePropertiesClient#getAll(Set) */
+    public static Map<String, IData> getAll(Set<String> keys) {
+        return DEFAULT.getAll(keys);
+    }
+
+    /** @see RemotePropertiesClient#getByPrefix(String) */
+    public static Map<String, IData> getByPrefix(String prefix) {
+        return DEFAULT.getByPrefix(prefix);
     }
 
     public static Optional<Integer> getInt(String key) {
-        return Optional.ofNullable(PROPERTIES_CACHE.get(key)).map(IData::toInt);
+        return DEFAULT.getInt(key);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        return DEFAULT.getInt(key, defaultValue);
     }
 
     public static Integer getIntOrDefault(String key, Integer defaultValue) {
-        return getInt(key).orElse(defaultValue);
+        return DEFAULT.getIntOrDefault(key, defaultValue);
     }
 
     public static Optional<Double> getDouble(String key) {
-        return Optional.ofNullable(PROPERTIES_CACHE.get(key)).map(IData::toDouble);
+        return DEFAULT.getDouble(key);
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        return DEFAULT.getDouble(key, defaultValue);
     }
 
     public static Double getDoubleOrDefault(String key, Double defaultValue) {
-        return getDouble(key).orElse(defaultValue);
+        return DEFAULT.getDoubleOrDefault(key, defaultValue);
     }
 
     public static Optional<Boolean> getBoolean(String key) {
-        return Optional.ofNullable(PROPERTIES_CACHE.get(key)).map(IData::toBool);
+        return DEFAULT.getBoolean(key);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        return DEFAULT.getBoolean(key, defaultValue);
     }
 
     public static Boolean getBooleanOrDefault(String key, Boolean defaultValue) {
-        return getBoolean(key).orElse(defaultValue);
+        return DEFAULT.getBooleanOrDefault(key, defaultValue);
     }
 
     public static Optional<String> getString(String key) {
-        return Optional.ofNullable(PROPERTIES_CACHE.get(key)).map(IData::toString);
+        return DEFAULT.getString(key);
     }
 
     public static String getStringOrDefault(String key, String defaultValue) {
-        return getString(key).orElse(defaultValue);
+        return DEFAULT.getStringOrDefault(key, defaultValue);
     }
 }
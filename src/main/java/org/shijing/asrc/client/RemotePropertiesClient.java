@@ -0,0 +1,1132 @@
+package org.shijing.asrc.client;
+
+
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.IData;
+
+import static org.shijing.asrc.client.model.DataDelta.DeltaType.ADDITION;
+import static org.shijing.asrc.client.model.DataDelta.DeltaType.DELETION;
+import static org.shijing.asrc.client.model.DataDelta.DeltaType.UPDATE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A client holding the configurations of one context. Any number of clients can live in one JVM,
+ * e.g. one per tenant, they share the executors applying, refreshing and persisting updates, so
+ * the footprint of a client is essentially its snapshot and listeners.
+ *
+ * <p>{@link RemoteProperties} is a static facade over a default client.
+ */
+public class RemotePropertiesClient implements AutoCloseable {
+    private static final int APPLY_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    /** Most distinct keys whose misses are counted, so keys built on the fly cannot pile up. */
+    static final int MAX_MISSED_KEYS = 1024;
+    /**
+     * Applies fetched configurations of all clients, keeps update work off the common fork-join
+     * pool. Updates of one client are still applied one at a time in the order they started.
+     */
+    private static final ExecutorService APPLY_EXECUTOR =
+            Executors.newFixedThreadPool(APPLY_THREADS, new DaemonThreadFactory("asrc-apply"));
+    /** Timer thread of the background refresh of all clients. */
+    private static final ScheduledExecutorService REFRESH_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("asrc-refresh"));
+    /** Writes snapshots of all clients to their files, off the threads applying updates. */
+    private static final ExecutorService PERSIST_EXECUTOR =
+            Executors.newSingleThreadExecutor(new DaemonThreadFactory("asrc-persist"));
+
+    private volatile IContextProvider contextProvider = null;
+    private volatile IFetcher configFetcher = null;
+    volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final Object updateLock = new Object();
+    /** Sequence number of the latest started update. */
+    private final AtomicLong updateSequence = new AtomicLong();
+    /** Sequence number of the update in service, guarded by {@code updateLock}. */
+    private long appliedSequence = 0L;
+    private RefreshScheduler refreshScheduler = null;
+    /** Wall clock time of the last successful fetch, 0 if none succeeded yet. */
+    private volatile long lastRefreshMillis = 0L;
+    private volatile Path snapshotFile = null;
+    /** Whether configurations are kept in an off-heap table, see {@link #setOffHeapStorage}. */
+    private volatile boolean offHeapStorage = false;
+    private final AtomicBoolean persistScheduled = new AtomicBoolean(false);
+    /** Fetches in flight keyed by their context, concurrent requests for a context share one. */
+    private final ConcurrentHashMap<Map<String, IData>, CompletableFuture<Void>> inFlight =
+            new ConcurrentHashMap<>();
+    /** Runs listener callbacks, callbacks run on the updating thread by default. */
+    private volatile Executor listenerExecutor = Runnable::run;
+    /** Objects listeners are registered with, each mapped to itself to look it up by object. */
+    private final ConcurrentHashMap<Callback.Observer, Callback.Observer> observers =
+            new ConcurrentHashMap<>();
+    /** Observers whose object has been collected, their callbacks are yet to be reclaimed. */
+    private final ReferenceQueue<Object> collectedObservers = new ReferenceQueue<>();
+    /**
+     * Held exclusively while a snapshot is published and shared while a listener registers, so
+     * registrations do not block each other and a new listener receives every change after the
+     * configurations it starts from.
+     */
+    private final ReentrantReadWriteLock listenerLock = new ReentrantReadWriteLock();
+    private final AtomicInteger listenerCount = new AtomicInteger();
+    private volatile IMetricsSink metrics = IMetricsSink.NOOP;
+    /** Per key, how often a getter fell back to the default, only counted while metrics are on. */
+    private final ConcurrentHashMap<String, LongAdder> misses = new ConcurrentHashMap<>();
+    /** Per key, the miss count last reported to the metrics sink, guarded by itself. */
+    private final Map<String, Long> reportedMisses = new HashMap<>();
+    /** Inverted index from an observed key to all callbacks observing it. */
+    final ConcurrentHashMap<String, Set<Callback>> observedKeys = new ConcurrentHashMap<>();
+    /** Pattern callbacks grouped by the literal prefix of their pattern. */
+    private final ConcurrentHashMap<String, Set<Callback>> observedPrefixes =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Set up the client and fetch the configurations of the context {@code contextProvider}
+     * provides.
+     *
+     * @param contextProvider provides the context, also re-read by the background refresh
+     * @param fetcher fetches configurations of a context
+     * @return future completed once the configurations are applied
+     */
+    public CompletableFuture<Void> init(IContextProvider contextProvider, IFetcher fetcher) {
+        this.contextProvider = contextProvider;
+        this.configFetcher = fetcher;
+        return updateContext(contextProvider.getContext());
+    }
+
+    /**
+     * Set up Remote Property with a local snapshot file. Configurations persisted by a previous
+     * run are served right away, and are reconciled with the remote ones once the first fetch
+     * completes. Every later update is persisted to {@code snapshotFile} in the background.
+     *
+     * @param contextProvider provides the context, also re-read by the background refresh
+     * @param fetcher fetches configurations of a context
+     * @param snapshotFile file to restore configurations from and persist them to
+     * @return future completed once the remote configurations are applied
+     */
+    public CompletableFuture<Void> init(
+            IContextProvider contextProvider, IFetcher fetcher, Path snapshotFile) {
+        restoreSnapshot(snapshotFile);
+        this.snapshotFile = snapshotFile;
+        return init(contextProvider, fetcher);
+    }
+
+    /**
+     * Load configurations from the snapshot file into service, unless an update is already in
+     * service. A missing or unreadable file is ignored, the first fetch fills the configurations.
+     */
+    private void restoreSnapshot(Path snapshotFile) {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return;
+        }
+        ConfigPatch persisted;
+        try {
+            persisted = SnapshotFile.read(snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        long sequence = updateSequence.incrementAndGet();
+        List<Callback> ready;
+        synchronized (updateLock) {
+            if (appliedSequence > 0 || !advanceSequence(sequence)) {
+                return;
+            }
+            long start = System.nanoTime();
+            Snapshot oldSnapshot = snapshot;
+            Snapshot nowSnapshot =
+                    offHeapStorage
+                            ? oldSnapshot.nextOffHeap(persisted.configs, persisted.revision)
+                            : oldSnapshot.wrap(persisted.configs, persisted.revision);
+            ready = publish(oldSnapshot, nowSnapshot, null, start);
+        }
+        dispatch(ready);
+    }
+
+    /**
+     * Set the file every update is persisted to in the background.
+     *
+     * @param snapshotFile the file, or null to stop persisting
+     */
+    public void setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        persist();
+    }
+
+    /**
+     * Keep configurations in an off-heap hash table instead of a map of {@link IData} objects,
+     * for configurations of hundreds of thousands of keys whose objects would dominate the heap
+     * and the GC work. Every update encodes a new table that replaces the old one at once, reads
+     * decode the value they return and {@code getInt}, {@code getDouble} and {@code getBoolean}
+     * with a default read numbers and booleans without decoding. A change takes effect with the
+     * next full update.
+     *
+     * <p>Tables are direct buffers whose memory is freed only when the GC collects a replaced
+     * table, so frequent updates hold several tables at once until a GC runs.
+     *
+     * @param offHeap true to keep configurations off-heap, false to keep them on heap
+     */
+    public void setOffHeapStorage(boolean offHeap) {
+        offHeapStorage = offHeap;
+    }
+
+    /** Schedule a write of the snapshot in service, coalescing writes requested meanwhile. */
+    private void persist() {
+        if (snapshotFile == null || !persistScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        PERSIST_EXECUTOR.execute(
+                () -> {
+                    persistScheduled.set(false);
+                    Path file = snapshotFile;
+                    if (file == null) {
+                        return;
+                    }
+                    try {
+                        SnapshotFile.write(file, snapshot);
+                    } catch (IOException e) {
+                        Thread thread = Thread.currentThread();
+                        thread.getUncaughtExceptionHandler()
+                                .uncaughtException(thread, new UncheckedIOException(e));
+                    }
+                });
+    }
+
+    /**
+     * Stop the background refresh and persisting, drop all configurations and listeners. The
+     * executors shared with other clients keep running.
+     */
+    @Override
+    public void close() {
+        reset();
+    }
+
+    /** Reset cache, listeners and observers. */
+    void reset() {
+        stopRefresh();
+        lastRefreshMillis = 0L;
+        listenerExecutor = Runnable::run;
+        snapshotFile = null;
+        offHeapStorage = false;
+        synchronized (updateLock) {
+            snapshot = snapshot.next(Collections.emptyMap(), null);
+            appliedSequence = 0L;
+        }
+        clearListeners();
+        setMetricsSink(null);
+    }
+
+    /**
+     * For each key in the lookupKeys, calculate the data change in {@code oldConfigs} and {@code
+     * nowConfigs}.
+     *
+     * @param oldConfigs configs to which {@code nowConfigs} is compared
+     * @param nowConfigs configs which is compared to the {@code oldConfigs}
+     * @param lookupKeys a set of keys only within which the delta is calculated
+     * @return deltas
+     */
+    static Map<String, DataDelta> calculateDelta(
+            Map<String, IData> oldConfigs, Map<String, IData> nowConfigs, Set<String> lookupKeys) {
+        Map<String, DataDelta> deltas = new HashMap<>();
+        for (String key : lookupKeys) {
+            DataDelta delta = calculateDelta(oldConfigs.get(key), nowConfigs.get(key));
+            if (delta != null) {
+                deltas.put(key, delta);
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Calculate the data change of a single key.
+     *
+     * @return the delta, or null if the data is not changed
+     */
+    private static DataDelta calculateDelta(IData oldData, IData nowData) {
+        if (oldData == null && nowData == null) {
+            return null; // no-op in case of no change
+        } else if (nowData == null) { // deletion case
+            return new DataDelta(oldData, nowData, DELETION);
+        } else if (!nowData.equals(oldData)) { // addition or change case
+            return new DataDelta(oldData, nowData, oldData == null ? ADDITION : UPDATE);
+        }
+        return null; // skip the un-change case
+    }
+
+    /**
+     * Replace all configurations with {@code configs} and notify listeners of the changes.
+     *
+     * <p>The new configurations are published as one immutable snapshot, readers see either the
+     * old or the new configurations but never a mix of both.
+     *
+     * @param configs the complete set of latest configurations
+     */
+    public void updateConfigs(Map<String, IData> configs) {
+        updateConfigs(configs, null, updateSequence.incrementAndGet());
+    }
+
+    /**
+     * Take the update into service unless a later started one has already been applied.
+     *
+     * @param sequence the sequence number assigned when the update was started
+     */
+    private void updateConfigs(Map<String, IData> configs, String revision, long sequence) {
+        List<Callback> ready;
+        synchronized (updateLock) {
+            if (!advanceSequence(sequence)) {
+                return;
+            }
+            long start = System.nanoTime();
+            Snapshot oldSnapshot = snapshot;
+            Snapshot nowSnapshot =
+                    offHeapStorage
+                            ? oldSnapshot.nextOffHeap(configs, revision)
+                            : oldSnapshot.next(configs, revision);
+            ready = publish(oldSnapshot, nowSnapshot, null, start);
+        }
+        dispatch(ready);
+        persist();
+    }
+
+    /**
+     * Apply a patch fetched by an {@link IDeltaFetcher}.
+     *
+     * @param baseRevision the revision the patch was requested against
+     * @param patch the patch to apply
+     * @return false if the patch is a delta but the configurations have been replaced since it
+     *     was requested, in which case nothing is applied
+     */
+    private boolean applyPatch(String baseRevision, ConfigPatch patch, long sequence) {
+        switch (patch.patchType) {
+            case FULL:
+                updateConfigs(patch.configs, patch.revision, sequence);
+                return true;
+            case DELTA:
+                List<Callback> ready;
+                synchronized (updateLock) {
+                    Snapshot oldSnapshot = snapshot;
+                    if (sequence < appliedSequence) {
+                        return true;
+                    }
+                    if (!Objects.equals(oldSnapshot.revision, baseRevision)) {
+                        return false;
+                    }
+                    advanceSequence(sequence);
+                    long start = System.nanoTime();
+                    Snapshot nowSnapshot = oldSnapshot.apply(patch.deltas, patch.revision);
+                    ready = publish(oldSnapshot, nowSnapshot, patch.deltas.keySet(), start);
+                }
+                dispatch(ready);
+                persist();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Record {@code sequence} as the one in service, must be called with {@code updateLock} held.
+     *
+     * @return false if an update started later than {@code sequence} is already in service
+     */
+    private boolean advanceSequence(long sequence) {
+        if (sequence < appliedSequence) {
+            return false;
+        }
+        appliedSequence = sequence;
+        return true;
+    }
+
+    /**
+     * Take {@code nowSnapshot} into service and queue the changes to listeners, must be called
+     * with {@code updateLock} held.
+     *
+     * @param changedKeys keys changed by a delta, or null if all configurations were replaced
+     * @param startNanos when building {@code nowSnapshot} started
+     * @return callbacks to be passed to {@link #dispatch(List)}
+     */
+    private List<Callback> publish(
+            Snapshot oldSnapshot,
+            Snapshot nowSnapshot,
+            Set<String> changedKeys,
+            long startNanos) {
+        reclaimCollected();
+        List<Callback> ready;
+        listenerLock.writeLock().lock();
+        try {
+            snapshot = nowSnapshot;
+            ready = notifyListeners(oldSnapshot, nowSnapshot, changedKeys);
+        } finally {
+            listenerLock.writeLock().unlock();
+        }
+        IMetricsSink metrics = this.metrics;
+        if (metrics != IMetricsSink.NOOP) {
+            metrics.recordApply(
+                    System.nanoTime() - startNanos,
+                    nowSnapshot.configs.size(),
+                    nowSnapshot.version);
+            Map<String, Long> newMisses = unreportedMisses();
+            if (!newMisses.isEmpty()) {
+                metrics.recordMisses(newMisses);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Diff the candidate keys of two snapshots once, then queue all changes of a callback as one
+     * batch to each callback observing a changed key. Must be called with {@code updateLock}
+     * held so that every callback receives the batches in the order of the updates.
+     *
+     * <p>Candidates are the changed keys, or the observed keys and the keys under an observed
+     * prefix in either snapshot if all configurations were replaced.
+     *
+     * @param changedKeys keys changed by a delta, or null if all configurations were replaced
+     * @return callbacks whose queue was idle, to be passed to {@link #dispatch(List)}
+     */
+    private List<Callback> notifyListeners(
+            Snapshot oldSnapshot, Snapshot nowSnapshot, Set<String> changedKeys) {
+        Map<Callback, Map<String, DataDelta>> pending = new LinkedHashMap<>();
+        Set<String> candidateKeys = changedKeys != null ? changedKeys : observedKeys.keySet();
+        for (String key : candidateKeys) {
+            Set<Callback> callbacks = observedKeys.get(key);
+            if (callbacks == null) {
+                continue;
+            }
+            DataDelta delta = calculateDelta(oldSnapshot.get(key), nowSnapshot.get(key));
+            if (delta == null) {
+                continue;
+            }
+            for (Callback callback : callbacks) {
+                pending.computeIfAbsent(callback, c -> new HashMap<>()).put(key, delta);
+            }
+        }
+        for (Map.Entry<String, Set<Callback>> entry : observedPrefixes.entrySet()) {
+            String prefix = entry.getKey();
+            Set<String> prefixedKeys = new LinkedHashSet<>();
+            if (changedKeys != null) {
+                for (String key : changedKeys) {
+                    if (key.startsWith(prefix)) {
+                        prefixedKeys.add(key);
+                    }
+                }
+            } else {
+                prefixedKeys.addAll(oldSnapshot.withPrefix(prefix).keySet());
+                prefixedKeys.addAll(nowSnapshot.withPrefix(prefix).keySet());
+            }
+            for (String key : prefixedKeys) {
+                DataDelta delta = calculateDelta(oldSnapshot.get(key), nowSnapshot.get(key));
+                if (delta == null) {
+                    continue;
+                }
+                for (Callback callback : entry.getValue()) {
+                    if (callback.pattern.matches(key)) {
+                        pending.computeIfAbsent(callback, c -> new HashMap<>()).put(key, delta);
+                    }
+                }
+            }
+        }
+
+        List<Callback> ready = new ArrayList<>();
+        int purged = 0;
+        for (Map.Entry<Callback, Map<String, DataDelta>> entry : pending.entrySet()) {
+            Callback callback = entry.getKey();
+            if (callback.observer.get() == null) {
+                purged += unregister(callback) ? 1 : 0;
+            } else if (callback.enqueue(entry.getValue())) {
+                ready.add(callback);
+            }
+        }
+        if (purged > 0) {
+            recordListeners(purged);
+        }
+        return ready;
+    }
+
+    /** Schedule draining of the callbacks on the listener executor. */
+    private void dispatch(List<Callback> callbacks) {
+        Executor executor = listenerExecutor;
+        IMetricsSink metrics = this.metrics;
+        for (Callback callback : callbacks) {
+            try {
+                executor.execute(() -> callback.drain(metrics));
+            } catch (RejectedExecutionException e) {
+                callback.drain(metrics);
+            }
+        }
+    }
+
+    /**
+     * Set the executor listener callbacks run on. Callbacks of one listener are never run
+     * concurrently and always receive changes in the order of the updates, a slow or throwing
+     * listener does not hold up the others as long as the executor has threads to spare.
+     *
+     * @param executor the executor, or null to run callbacks on the thread applying the update
+     */
+    public void setListenerExecutor(Executor executor) {
+        listenerExecutor = executor == null ? Runnable::run : executor;
+    }
+
+    /** @return number of deltas queued but not yet consumed, summed over all listeners. */
+    public int getPendingDeliveries() {
+        int pending = 0;
+        for (Callback.Observer observer : observers.keySet()) {
+            for (Callback callback : observer.callbacks) {
+                pending += callback.pendingDeliveries.get();
+            }
+        }
+        return pending;
+    }
+
+    /** @return the largest number of deltas queued but not yet consumed by a single listener. */
+    public int getMaxPendingDeliveries() {
+        int max = 0;
+        for (Callback.Observer observer : observers.keySet()) {
+            for (Callback callback : observer.callbacks) {
+                max = Math.max(max, callback.pendingDeliveries.get());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Remove the callback from its observer and from the index of every key it observes.
+     *
+     * @return false if the callback was not registered
+     */
+    private boolean unregister(Callback callback) {
+        if (!callback.observer.callbacks.remove(callback)) {
+            return false;
+        }
+        listenerCount.decrementAndGet();
+        for (String key : callback.observeKeys) {
+            observedKeys.computeIfPresent(
+                    key,
+                    (k, callbacks) -> {
+                        callbacks.remove(callback);
+                        return callbacks.isEmpty() ? null : callbacks;
+                    });
+        }
+        if (callback.pattern != null) {
+            observedPrefixes.computeIfPresent(
+                    callback.pattern.literalPrefix,
+                    (k, callbacks) -> {
+                        callbacks.remove(callback);
+                        return callbacks.isEmpty() ? null : callbacks;
+                    });
+        }
+        return true;
+    }
+
+    /**
+     * Unregister the observer and all its callbacks, callbacks can no longer be added to it.
+     *
+     * @return number of callbacks unregistered
+     */
+    private int removeObserver(Callback.Observer observer) {
+        observers.remove(observer, observer);
+        synchronized (observer) {
+            observer.removed = true;
+        }
+        int removed = 0;
+        for (Callback callback : observer.callbacks) {
+            removed += unregister(callback) ? 1 : 0;
+        }
+        return removed;
+    }
+
+    /** Unregister the callbacks of the observers collected since the last call. */
+    private void reclaimCollected() {
+        int purged = 0;
+        for (Reference<?> collected = collectedObservers.poll();
+                collected != null;
+                collected = collectedObservers.poll()) {
+            purged += removeObserver((Callback.Observer) collected);
+        }
+        if (purged > 0) {
+            recordListeners(purged);
+        }
+    }
+
+    private void recordListeners(int purged) {
+        IMetricsSink metrics = this.metrics;
+        if (metrics != IMetricsSink.NOOP) {
+            metrics.recordListeners(listenerCount.get(), purged);
+        }
+    }
+
+    /**
+     * Register a sink receiving measurements of fetches, updates, listeners and getter misses.
+     *
+     * @param sink the sink, or null to stop measuring
+     */
+    public void setMetricsSink(IMetricsSink sink) {
+        metrics = sink == null ? IMetricsSink.NOOP : sink;
+        synchronized (reportedMisses) {
+            misses.clear();
+            reportedMisses.clear();
+        }
+    }
+
+    /**
+     * Count a getter falling back to the default value. Once {@link #MAX_MISSED_KEYS} keys are
+     * counted, misses of other keys are not.
+     */
+    void recordMiss(String key) {
+        if (metrics != IMetricsSink.NOOP) {
+            LongAdder count = misses.get(key);
+            if (count == null) {
+                if (misses.size() >= MAX_MISSED_KEYS) {
+                    return;
+                }
+                count = misses.computeIfAbsent(key, k -> new LongAdder());
+            }
+            count.increment();
+        }
+    }
+
+    /** @return per key, the misses counted since the previous call, without keys not missed. */
+    private Map<String, Long> unreportedMisses() {
+        Map<String, Long> newMisses = Collections.emptyMap();
+        synchronized (reportedMisses) {
+            for (Map.Entry<String, LongAdder> entry : misses.entrySet()) {
+                long count = entry.getValue().sum();
+                Long reported = reportedMisses.put(entry.getKey(), count);
+                long delta = reported == null ? count : count - reported;
+                if (delta > 0) {
+                    if (newMisses.isEmpty()) {
+                        newMisses = new HashMap<>();
+                    }
+                    newMisses.put(entry.getKey(), delta);
+                }
+            }
+        }
+        return newMisses;
+    }
+
+    /**
+     * @return per key, how often a getter fell back to the default value because the key was
+     *     absent, counted only while a metrics sink is registered and for at most 1024 keys
+     */
+    public Map<String, Long> getMissCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        misses.forEach((key, adder) -> counts.put(key, adder.sum()));
+        return counts;
+    }
+
+    /** @return version of the configurations currently in service, increases on every update. */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Kick start of the whole client: 1. use fetcher to fetch the latest configurations. 2. exec
+     * registered callbacks
+     *
+     * <p>Concurrent calls with equal contexts share one fetch. Results are applied in the order
+     * the fetches were started, a result arriving after that of a later started fetch is dropped.
+     *
+     * <p>If the fetcher is an {@link IDeltaFetcher}, only the changes since the revision in
+     * service are fetched and applied. Should the configurations be replaced while the changes
+     * are in flight, the complete configurations are fetched instead.
+     *
+     * @param context
+     */
+    public CompletableFuture<Void> updateContext(Map<String, IData> context) {
+        if (configFetcher == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, IData> flightKey = Collections.unmodifiableMap(new HashMap<>(context));
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(flightKey, flight);
+        if (existing != null) {
+            return existing.thenApply(v -> v);
+        }
+        CompletableFuture<Void> applied;
+        try {
+            applied = fetchAndApply(flightKey, updateSequence.incrementAndGet());
+        } catch (RuntimeException e) {
+            // a fetcher throwing or returning null must not leave the flight open for good
+            inFlight.remove(flightKey, flight);
+            flight.completeExceptionally(e);
+            return flight.thenApply(v -> v);
+        }
+        applied.whenComplete(
+                (v, e) -> {
+                    inFlight.remove(flightKey, flight);
+                    if (e != null) {
+                        flight.completeExceptionally(e);
+                    } else {
+                        flight.complete(null);
+                    }
+                });
+        return flight.thenApply(v -> v);
+    }
+
+    private CompletableFuture<Void> fetchAndApply(
+            Map<String, IData> context, long sequence) {
+        IFetcher fetcher = configFetcher;
+        if (fetcher instanceof IDeltaFetcher
+                && (((IDeltaFetcher) fetcher).fetchesDeltas()
+                        || !(fetcher instanceof IStreamingFetcher))) {
+            String revision = snapshot.revision;
+            return tracked(timed(((IDeltaFetcher) fetcher).fetchDelta(context, revision)))
+                    .thenComposeAsync(
+                            patch ->
+                                    applyPatch(revision, patch, sequence)
+                                            ? CompletableFuture.<Void>completedFuture(null)
+                                            : tracked(timed(fetcher.fetch(context)))
+                                                    .thenAcceptAsync(
+                                                            configs ->
+                                                                    updateConfigs(
+                                                                            configs,
+                                                                            null,
+                                                                            sequence),
+                                                            APPLY_EXECUTOR),
+                            APPLY_EXECUTOR);
+        }
+        if (fetcher instanceof IStreamingFetcher) {
+            StreamedConfigs streamed = new StreamedConfigs(snapshot);
+            return tracked(timed(((IStreamingFetcher) fetcher).fetchStream(context, streamed)))
+                    .thenAcceptAsync(v -> applyStreamed(streamed, sequence), APPLY_EXECUTOR);
+        }
+        return tracked(timed(fetcher.fetch(context)))
+                .thenAcceptAsync(configs -> updateConfigs(configs, null, sequence), APPLY_EXECUTOR);
+    }
+
+    /**
+     * Configurations pushed by an {@link IStreamingFetcher}, diffed against the snapshot in
+     * service when the stream started while they arrive.
+     */
+    private static final class StreamedConfigs implements BiConsumer<String, IData> {
+        final Snapshot base;
+        final Map<String, IData> configs;
+        /** Keys added or updated so far, deletions are only known once the stream completes. */
+        final Set<String> changedKeys = new HashSet<>();
+        volatile boolean completed = false;
+
+        StreamedConfigs(Snapshot base) {
+            this.base = base;
+            this.configs = new HashMap<>((int) (base.configs.size() / 0.75f) + 1);
+        }
+
+        @Override
+        public void accept(String key, IData data) {
+            if (completed) {
+                throw new IllegalStateException("Configurations pushed after the stream completed");
+            }
+            if (data == null) {
+                return;
+            }
+            IData oldData = base.get(key);
+            if (oldData != null && oldData != data && oldData.equals(data)) {
+                data = oldData;
+            }
+            configs.put(key, data);
+            if (oldData != data) {
+                changedKeys.add(key);
+            }
+        }
+    }
+
+    /**
+     * Take streamed configurations into service. Listeners are notified of the keys changed
+     * against the stream's base snapshot, or of a full diff if another update was applied while
+     * streaming.
+     */
+    private void applyStreamed(StreamedConfigs streamed, long sequence) {
+        streamed.completed = true;
+        List<Callback> ready;
+        synchronized (updateLock) {
+            if (!advanceSequence(sequence)) {
+                return;
+            }
+            long start = System.nanoTime();
+            Snapshot oldSnapshot = snapshot;
+            Snapshot nowSnapshot =
+                    offHeapStorage
+                            ? oldSnapshot.nextOffHeap(streamed.configs, null)
+                            : oldSnapshot.wrap(streamed.configs, null);
+            Set<String> changedKeys = null;
+            if (oldSnapshot == streamed.base) {
+                changedKeys = streamed.changedKeys;
+                for (String key : oldSnapshot.configs.keySet()) {
+                    if (!streamed.configs.containsKey(key)) {
+                        changedKeys.add(key);
+                    }
+                }
+            }
+            ready = publish(oldSnapshot, nowSnapshot, changedKeys, start);
+        }
+        dispatch(ready);
+        persist();
+    }
+
+    /**
+     * Record when {@code fetch} succeeds, report the staleness of the configurations in service
+     * if it fails.
+     */
+    private <T> CompletableFuture<T> tracked(CompletableFuture<T> fetch) {
+        return fetch.whenComplete(
+                (result, e) -> {
+                    if (e == null) {
+                        lastRefreshMillis = System.currentTimeMillis();
+                        return;
+                    }
+                    IMetricsSink metrics = this.metrics;
+                    if (metrics != IMetricsSink.NOOP) {
+                        metrics.recordStaleness(getStalenessMillis());
+                    }
+                });
+    }
+
+    /**
+     * @return wall clock time in milliseconds of the last successful fetch, 0 if none succeeded
+     *     yet
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * Failed fetches keep the last good configurations in service, this tells how old they are.
+     *
+     * @return milliseconds since the last successful fetch, -1 if none succeeded yet
+     */
+    public long getStalenessMillis() {
+        long last = lastRefreshMillis;
+        return last == 0L ? -1L : Math.max(0L, System.currentTimeMillis() - last);
+    }
+
+    /** Report the latency of {@code fetch} to the metrics sink, if there is one. */
+    private <T> CompletableFuture<T> timed(CompletableFuture<T> fetch) {
+        IMetricsSink metrics = this.metrics;
+        if (metrics == IMetricsSink.NOOP) {
+            return fetch;
+        }
+        long start = System.nanoTime();
+        return fetch.whenComplete(
+                (result, e) -> metrics.recordFetch(System.nanoTime() - start, e == null));
+    }
+
+    /**
+     * Refresh configurations in the background, re-reading the context from the context provider
+     * passed to {@link #init(IContextProvider, IFetcher)} on every refresh. Replaces the refresh
+     * started before, if any.
+     *
+     * @param policy interval, jitter and backoff of the refresh
+     */
+    public synchronized void startRefresh(RefreshPolicy policy) {
+        if (contextProvider == null) {
+            throw new IllegalStateException("RemotePropertiesClient is not initialized");
+        }
+        stopRefresh();
+        IContextProvider provider = contextProvider;
+        refreshScheduler =
+                new RefreshScheduler(
+                        REFRESH_EXECUTOR,
+                        policy,
+                        () -> updateContext(provider.getContext()));
+        refreshScheduler.start();
+    }
+
+    /** Stop the background refresh, a refresh in flight still completes. */
+    public synchronized void stopRefresh() {
+        if (refreshScheduler != null) {
+            refreshScheduler.stop();
+            refreshScheduler = null;
+        }
+    }
+
+    public void setFetcher(IFetcher fetcher) {
+        configFetcher = fetcher;
+    }
+
+    /**
+     * Observe on changes to configurations of `observedKeys`, can exec callback if and only if
+     * the configuration value is changed.
+     *
+     * Be noted that this method does not check for duplicates, if one callback is registered multiple times,
+     * it will be called multiple times as well when new configs are received.
+     *
+     * @param object (Nonnull) anchor  that all data consumers are registered with. It is used for
+     *                 callback clean up:
+     *                 1. The objectReference holds an observer object which if is gc-ed, all its associated
+     *                 callbacks will be invalidated and cleaned.
+     *                 2. When {@code removeListeners is called, all registered callbacks will be removed.
+     * @param observedKeys
+     * @param dataConsumer
+     */
+    public void addListener(
+            Object object,
+            Set<String> observedKeys,
+            Consumer<Map<String, DataDelta>> dataConsumer) {
+        register(
+                object,
+                dataConsumer,
+                Collections.unmodifiableSet(new HashSet<>(observedKeys)),
+                null);
+    }
+
+    /**
+     * Observe changes to all configurations whose key starts with {@code prefix}, like {@link
+     * #addListener(Object, Set, Consumer)}.
+     *
+     * @param prefix the key prefix, e.g. {@code "payments."}
+     */
+    public void addPrefixListener(
+            Object object, String prefix, Consumer<Map<String, DataDelta>> dataConsumer) {
+        register(object, dataConsumer, Collections.emptySet(), KeyPattern.prefix(prefix));
+    }
+
+    /**
+     * Observe changes to all configurations whose key matches {@code glob}, like {@link
+     * #addListener(Object, Set, Consumer)}. Keys are looked up by the part of the glob before its
+     * first wildcard, so a glob starting with a wildcard is matched against every changed key.
+     *
+     * @param glob the key pattern, {@code *} matches any characters and {@code ?} one character,
+     *     e.g. {@code "feature.*.enabled"}
+     */
+    public void addPatternListener(
+            Object object, String glob, Consumer<Map<String, DataDelta>> dataConsumer) {
+        register(object, dataConsumer, Collections.emptySet(), KeyPattern.glob(glob));
+    }
+
+    /**
+     * Index a callback and queue the configurations it observes as additions. Registrations take
+     * the listener lock shared and the monitor of their observer only, so they run concurrently
+     * with each other, collected observers are reclaimed on the way.
+     */
+    private void register(
+            Object object,
+            Consumer<Map<String, DataDelta>> dataConsumer,
+            Set<String> observeKeys,
+            KeyPattern pattern) {
+        reclaimCollected();
+        Callback callback;
+        boolean ready = false;
+        listenerLock.readLock().lock();
+        try {
+            Snapshot current = snapshot;
+            Map<String, IData> configs = new HashMap<>();
+            for (String key : observeKeys) {
+                IData data = current.get(key);
+                if (data != null) {
+                    configs.put(key, data);
+                }
+            }
+            if (pattern != null) {
+                current.withPrefix(pattern.literalPrefix)
+                        .forEach(
+                                (key, data) -> {
+                                    if (pattern.matches(key)) {
+                                        configs.put(key, data);
+                                    }
+                                });
+            }
+            while (true) {
+                Callback.Observer observer = observerOf(object);
+                synchronized (observer) {
+                    if (observer.removed) {
+                        continue;
+                    }
+                    callback = new Callback(observer, dataConsumer, observeKeys, pattern);
+                    if (configs.size() > 0) {
+                        ready =
+                                callback.enqueue(
+                                        calculateDelta(
+                                                Collections.emptyMap(),
+                                                configs,
+                                                configs.keySet()));
+                    }
+                    observer.callbacks.add(callback);
+                    listenerCount.incrementAndGet();
+                    for (String key : observeKeys) {
+                        observedKeys
+                                .computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet())
+                                .add(callback);
+                    }
+                    if (pattern != null) {
+                        observedPrefixes
+                                .computeIfAbsent(
+                                        pattern.literalPrefix, k -> ConcurrentHashMap.newKeySet())
+                                .add(callback);
+                    }
+                    break;
+                }
+            }
+        } finally {
+            listenerLock.readLock().unlock();
+        }
+        if (ready) {
+            dispatch(Collections.singletonList(callback));
+        }
+        recordListeners(0);
+    }
+
+    /** @return the registered observer of {@code object}, registering one if there is none. */
+    private Callback.Observer observerOf(Object object) {
+        Callback.Observer observer = observers.get(new Callback.Observer(object, null));
+        if (observer == null) {
+            Callback.Observer created = new Callback.Observer(object, collectedObservers);
+            observer = observers.putIfAbsent(created, created);
+            if (observer == null) {
+                observer = created;
+            }
+        }
+        return observer;
+    }
+
+    /**
+     * Remove listeners that are associated with the {@code objectReference}. Takes time in the
+     * number of listeners of the object, plus the ones of observers collected meanwhile.
+     *
+     * @param object the observer to remove, or null if we went to purge dead listeners.
+     */
+    public void removeListeners(Object object) {
+        reclaimCollected();
+        if (object == null) {
+            return;
+        }
+        Callback.Observer observer = observers.remove(new Callback.Observer(object, null));
+        if (observer != null && removeObserver(observer) > 0) {
+            recordListeners(0);
+        }
+    }
+
+    public void removeAllListeners() {
+        clearListeners();
+        recordListeners(0);
+    }
+
+    private void clearListeners() {
+        for (Callback.Observer observer : observers.keySet()) {
+            removeObserver(observer);
+        }
+    }
+
+    /**
+     * Get a handle bound to {@code key}, which reads the configuration without allocating.
+     *
+     * @param key the configuration key
+     * @return a handle that always reflects the configurations currently in service
+     */
+    public PropertyHandle getHandle(String key) {
+        return new PropertyHandle(this, key);
+    }
+
+    /**
+     * Get all configurations under a namespace from one snapshot, so they are consistent with each
+     * other even if an update is applied meanwhile.
+     *
+     * @param prefix the key prefix, e.g. {@code "payments."}
+     * @return read-only view of the configurations whose key starts with {@code prefix}, iterated
+     *     in key order
+     */
+    public Map<String, IData> getByPrefix(String prefix) {
+        return snapshot.withPrefix(prefix);
+    }
+
+    /**
+     * Pin the configurations currently in service, e.g. for the length of a request, so that
+     * related keys are read from the same version even if an update is applied meanwhile.
+     *
+     * @return a read view of the configurations currently in service
+     */
+    public ConfigView pin() {
+        return new ConfigView(this, snapshot);
+    }
+
+    /**
+     * Resolve many keys in one pass over the configurations currently in service.
+     *
+     * @return data of the present keys, absent keys are left out
+     */
+    public Map<String, IData> getAll(Set<String> keys) {
+        return pin().getAll(keys);
+    }
+
+    /** @return the data of {@code key} in service, counting a miss if it is absent. */
+    private IData lookup(String key) {
+        IData data = snapshot.get(key);
+        if (data == null) {
+            recordMiss(key);
+        }
+        return data;
+    }
+
+    public Optional<Integer> getInt(String key) {
+        return Optional.ofNullable(lookup(key)).filter(IData::isInt).map(IData::toInt);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return snapshot.getInt(key, defaultValue, this);
+    }
+
+    public Integer getIntOrDefault(String key, Integer defaultValue) {
+        IData data = lookup(key);
+        return data == null || !data.isInt() ? defaultValue : Integer.valueOf(data.toInt());
+    }
+
+    public Optional<Double> getDouble(String key) {
+        return Optional.ofNullable(lookup(key)).filter(IData::isDouble).map(IData::toDouble);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        return snapshot.getDouble(key, defaultValue, this);
+    }
+
+    public Double getDoubleOrDefault(String key, Double defaultValue) {
+        IData data = lookup(key);
+        return data == null || !data.isDouble() ? defaultValue : Double.valueOf(data.toDouble());
+    }
+
+    public Optional<Boolean> getBoolean(String key) {
+        return Optional.ofNullable(lookup(key)).map(IData::toBool);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return snapshot.getBoolean(key, defaultValue, this);
+    }
+
+    public Boolean getBooleanOrDefault(String key, Boolean defaultValue) {
+        IData data = lookup(key);
+        return data == null ? defaultValue : Boolean.valueOf(data.toBool());
+    }
+
+    public Optional<String> getString(String key) {
+        return Optional.ofNullable(lookup(key)).map(IData::toString);
+    }
+
+    public String getStringOrDefault(String key, String defaultValue) {
+        IData data = lookup(key);
+        return data == null ? defaultValue : data.toString();
+    }
+}
@@ -0,0 +1,287 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Fetcher bounding the latency and failure rate a degraded config service imposes on the client.
+ *
+ * <ul>
+ *   <li>Every fetch fails with a {@link TimeoutException} once its deadline passes.
+ *   <li>If hedging is on, a second request is issued once a fetch takes longer than the given
+ *       percentile of recent fetch latencies, the first successful response wins.
+ *   <li>After a number of consecutive failures the circuit opens, fetches fail right away
+ *       without reaching the delegate until the open duration has passed. Then a single trial
+ *       fetch is let through, which closes the circuit again on success.
+ * </ul>
+ *
+ * <p>A failed fetch leaves the configurations in service untouched, see {@link
+ * RemotePropertiesClient#getStalenessMillis()} for how old they are. Deltas are fetched with the
+ * same protection if the delegate is an {@link IDeltaFetcher}, and streamed if it is an {@link
+ * IStreamingFetcher}. Streamed fetches are never hedged, two requests cannot push to one sink.
+ */
+public class ResilientFetcher implements IDeltaFetcher, IStreamingFetcher {
+    public enum CircuitState {
+        CLOSED,
+        OPEN,
+        /** A trial fetch is in flight, other fetches are rejected until it completes. */
+        HALF_OPEN
+    }
+
+    /** Runs the deadline and hedging timers only, their work is handed to {@link #EXECUTOR}. */
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("asrc-deadline"));
+    /**
+     * Issues hedged requests and fails fetches past their deadline, so a delegate blocking in
+     * {@link IFetcher#fetch(Map)} or a slow callback of a fetch holds up no other timer.
+     */
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(new DaemonThreadFactory("asrc-resilient"));
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_SECONDS = 30;
+    /** Latencies kept to compute the hedging threshold from. */
+    private static final int LATENCY_WINDOW = 128;
+    /** No hedging until this many latencies have been recorded. */
+    private static final int MIN_LATENCY_SAMPLES = 16;
+
+    private final IFetcher delegate;
+    private final long deadlineNanos;
+    private final double hedgePercentile;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    /** Latencies of recent successful fetches, guarded by itself. */
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int nextLatency = 0;
+
+    /** Circuit breaker state, guarded by {@code this}. */
+    private CircuitState state = CircuitState.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtNanos = 0L;
+
+    /**
+     * Fetcher with a deadline and a circuit opening for 30 seconds after 5 consecutive failures,
+     * without hedging.
+     */
+    public ResilientFetcher(IFetcher delegate, long deadline, TimeUnit unit) {
+        this(
+                delegate,
+                deadline,
+                0,
+                DEFAULT_FAILURE_THRESHOLD,
+                unit.convert(DEFAULT_OPEN_SECONDS, TimeUnit.SECONDS),
+                unit);
+    }
+
+    /**
+     * @param delegate the fetcher doing the actual fetches
+     * @param deadline how long a fetch may take including its hedged request
+     * @param hedgePercentile percentile of recent latencies, within (0, 1), after which a second
+     *     request is issued, or 0 to never hedge
+     * @param failureThreshold consecutive failures opening the circuit
+     * @param openDuration how long the circuit stays open before a trial fetch
+     * @param unit unit of {@code deadline} and {@code openDuration}
+     */
+    public ResilientFetcher(
+            IFetcher delegate,
+            long deadline,
+            double hedgePercentile,
+            int failureThreshold,
+            long openDuration,
+            TimeUnit unit) {
+        if (deadline <= 0) {
+            throw new IllegalArgumentException("deadline must be positive: " + deadline);
+        }
+        if (hedgePercentile < 0 || hedgePercentile >= 1) {
+            throw new IllegalArgumentException(
+                    "hedgePercentile must be within [0, 1): " + hedgePercentile);
+        }
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException(
+                    "failureThreshold must be positive: " + failureThreshold);
+        }
+        this.delegate = delegate;
+        this.deadlineNanos = unit.toNanos(deadline);
+        this.hedgePercentile = hedgePercentile;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = unit.toNanos(openDuration);
+    }
+
+    @Override
+    public CompletableFuture<Map<String, IData>> fetch(Map<String, IData> context) {
+        return guard(() -> delegate.fetch(context), true);
+    }
+
+    @Override
+    public CompletableFuture<ConfigPatch> fetchDelta(Map<String, IData> context, String revision) {
+        if (delegate instanceof IDeltaFetcher) {
+            return guard(() -> ((IDeltaFetcher) delegate).fetchDelta(context, revision), true);
+        }
+        return guard(() -> delegate.fetch(context), true)
+                .thenApply(configs -> ConfigPatch.full(null, configs));
+    }
+
+    @Override
+    public boolean fetchesDeltas() {
+        return delegate instanceof IDeltaFetcher && ((IDeltaFetcher) delegate).fetchesDeltas();
+    }
+
+    @Override
+    public CompletableFuture<Void> fetchStream(
+            Map<String, IData> context, BiConsumer<String, IData> sink) {
+        if (delegate instanceof IStreamingFetcher) {
+            return guard(() -> ((IStreamingFetcher) delegate).fetchStream(context, sink), false);
+        }
+        return guard(() -> delegate.fetch(context), true)
+                .thenAccept(configs -> configs.forEach(sink));
+    }
+
+    public synchronized CircuitState getCircuitState() {
+        return state;
+    }
+
+    /**
+     * Run {@code request} with the deadline and circuit breaker applied.
+     *
+     * @param hedged false if {@code request} must not run twice at once, even if slow
+     */
+    private <T> CompletableFuture<T> guard(
+            Supplier<CompletableFuture<T>> request, boolean hedged) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (!tryAcquire()) {
+            result.completeExceptionally(new IllegalStateException("Circuit is open"));
+            return result;
+        }
+        long start = System.nanoTime();
+        AtomicInteger running = new AtomicInteger(1);
+        issue(request, result, running);
+
+        ScheduledFuture<?> deadline =
+                SCHEDULER.schedule(
+                        () -> EXECUTOR.execute(() -> result.completeExceptionally(timeout())),
+                        deadlineNanos,
+                        TimeUnit.NANOSECONDS);
+        long hedgeDelay = hedged ? hedgeDelayNanos() : -1;
+        ScheduledFuture<?> hedge =
+                hedgeDelay < 0 || hedgeDelay >= deadlineNanos
+                        ? null
+                        : SCHEDULER.schedule(
+                                () ->
+                                        EXECUTOR.execute(
+                                                () -> {
+                                                    if (!result.isDone()) {
+                                                        running.incrementAndGet();
+                                                        issue(request, result, running);
+                                                    }
+                                                }),
+                                hedgeDelay,
+                                TimeUnit.NANOSECONDS);
+        result.whenComplete(
+                (value, e) -> {
+                    deadline.cancel(false);
+                    if (hedge != null) {
+                        hedge.cancel(false);
+                    }
+                    if (e == null) {
+                        recordLatency(System.nanoTime() - start);
+                    }
+                    release(e == null);
+                });
+        return result;
+    }
+
+    /**
+     * Issue one request completing {@code result}, a failure only fails {@code result} if no
+     * other request is still running.
+     */
+    private <T> void issue(
+            Supplier<CompletableFuture<T>> request,
+            CompletableFuture<T> result,
+            AtomicInteger running) {
+        CompletableFuture<T> attempt;
+        try {
+            attempt = request.get();
+        } catch (RuntimeException e) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(e);
+        }
+        attempt.whenComplete(
+                (value, e) -> {
+                    if (e == null) {
+                        result.complete(value);
+                    } else if (running.decrementAndGet() == 0) {
+                        result.completeExceptionally(e);
+                    }
+                });
+    }
+
+    private TimeoutException timeout() {
+        return new TimeoutException(
+                "Fetch exceeded its deadline of "
+                        + TimeUnit.NANOSECONDS.toMillis(deadlineNanos)
+                        + "ms");
+    }
+
+    /** @return false if the circuit rejects the fetch. */
+    private synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAtNanos < openNanos) {
+                    return false;
+                }
+                state = CircuitState.HALF_OPEN;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized void release(boolean success) {
+        if (success) {
+            state = CircuitState.CLOSED;
+            consecutiveFailures = 0;
+        } else if (state == CircuitState.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            state = CircuitState.OPEN;
+            openedAtNanos = System.nanoTime();
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[nextLatency] = nanos;
+            nextLatency = (nextLatency + 1) % LATENCY_WINDOW;
+            latencyCount = Math.min(latencyCount + 1, LATENCY_WINDOW);
+        }
+    }
+
+    /** @return the hedging threshold, or -1 if hedging is off or there are too few samples. */
+    private long hedgeDelayNanos() {
+        if (hedgePercentile == 0) {
+            return -1;
+        }
+        long[] samples;
+        synchronized (latencies) {
+            if (latencyCount < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            samples = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(samples);
+        return samples[(int) Math.ceil(hedgePercentile * samples.length) - 1];
+    }
+}
@@ -0,0 +1,244 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.DataCodec;
+import org.shijing.asrc.client.model.IData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * Fetcher sharing one fetch among all processes of a host through a memory-mapped file. The
+ * process holding the lock of the file is the writer: it fetches with its delegate and writes
+ * every result into the file. All other processes are readers: they read the latest result from
+ * the file without reaching the config service, so a background refresh on them only polls the
+ * file. Once the writer exits its lock is released and the next reader to fetch takes over.
+ *
+ * <p>The file starts with a header of magic, sequence, payload length and CRC32 of the payload,
+ * followed by the configurations encoded by {@link DataCodec}. The writer makes the sequence odd
+ * before changing the payload and even again afterwards, readers retry until they copied a
+ * payload under the same even sequence that matches its checksum.
+ *
+ * <p>The sequence is the revision of the shared configurations. A reader whose client already
+ * holds the current sequence answers {@link ConfigPatch#notModified()} after reading the header
+ * only, so polling an unchanged file leaves the configurations in service untouched.
+ *
+ * <p>All processes sharing a file must fetch for the same context, the context of the writer
+ * decides the configurations. Values of types the codec cannot encode are not shared.
+ */
+public class SharedSnapshotFetcher implements IDeltaFetcher, Closeable {
+    private static final int MAGIC = 0x41535253; // "ASRS"
+    private static final int SEQUENCE = 8;
+    private static final int LENGTH = 16;
+    private static final int CHECKSUM = 24;
+    private static final int HEADER = 32;
+    /** Reads racing with this many writes in a row give up. */
+    private static final int MAX_READ_ATTEMPTS = 100;
+
+    /**
+     * Volatile accesses around the plain accesses of the mapping keep the JIT from reordering
+     * them across the sequence updates, torn reads left are caught by the checksum.
+     */
+    private static volatile long fence = 0L;
+
+    private final FileChannel channel;
+    private final IFetcher delegate;
+    /** Lock of the writer, null while this process is a reader. Guarded by {@code this}. */
+    private FileLock lock;
+    private MappedByteBuffer mapping;
+    private long lastSequence = 0L;
+    private Map<String, IData> lastConfigs;
+    private boolean closed = false;
+
+    /**
+     * @param file the file shared by the processes of the host, created if missing
+     * @param delegate fetches configurations once this process is elected writer, or null to
+     *     only read, e.g. if a sidecar process writes the file
+     */
+    public SharedSnapshotFetcher(Path file, IFetcher delegate) throws IOException {
+        this.channel =
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public CompletableFuture<Map<String, IData>> fetch(Map<String, IData> context) {
+        return fetchDelta(context, null).thenApply(patch -> patch.configs);
+    }
+
+    /**
+     * Read the shared configurations, or fetch and share them if this process is the writer.
+     *
+     * @param revision the sequence of the shared configurations the client holds, or null
+     * @return {@link ConfigPatch#notModified()} if {@code revision} is the current sequence,
+     *     otherwise all configurations with the sequence as revision
+     */
+    @Override
+    public CompletableFuture<ConfigPatch> fetchDelta(Map<String, IData> context, String revision) {
+        CompletableFuture<ConfigPatch> result = new CompletableFuture<>();
+        try {
+            if (!isWriter()) {
+                result.complete(read(revision));
+                return result;
+            }
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        return delegate.fetch(context)
+                .thenApply(
+                        configs -> {
+                            String written = null;
+                            try {
+                                long sequence = write(configs);
+                                written = sequence < 0 ? null : String.valueOf(sequence);
+                            } catch (IOException e) {
+                                Thread thread = Thread.currentThread();
+                                thread.getUncaughtExceptionHandler()
+                                        .uncaughtException(thread, new UncheckedIOException(e));
+                            }
+                            return ConfigPatch.full(written, configs);
+                        });
+    }
+
+    /**
+     * @return true if this process writes the file, trying to take over if no process holds its
+     *     lock
+     */
+    public synchronized boolean isWriter() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Fetcher is closed");
+        }
+        if (lock == null && delegate != null) {
+            try {
+                // Lock a region past any content, so readers on any platform can still map it.
+                lock = channel.tryLock(Long.MAX_VALUE - 1, 1, false);
+            } catch (OverlappingFileLockException e) {
+                // another fetcher of this process is the writer
+                lock = null;
+            }
+        }
+        return lock != null;
+    }
+
+    /** Release the lock if this process is the writer and close the file. */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+        } finally {
+            lock = null;
+            mapping = null;
+            channel.close();
+        }
+    }
+
+    /** @return the sequence the configurations were written under, -1 if closed meanwhile. */
+    private synchronized long write(Map<String, IData> configs) throws IOException {
+        if (closed) {
+            return -1L;
+        }
+        if (!configs.values().stream().allMatch(DataCodec::canEncode)) {
+            configs = new HashMap<>(configs);
+            configs.values().removeIf(data -> !DataCodec.canEncode(data));
+        }
+        byte[] payload = DataCodec.encode(configs);
+        if (mapping == null
+                || mapping.isReadOnly()
+                || mapping.capacity() < HEADER + payload.length) {
+            long size = Math.max(channel.size(), HEADER + 2L * payload.length);
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        long current = mapping.getInt(0) == MAGIC ? mapping.getLong(SEQUENCE) : 0L;
+        long sequence = current % 2 == 0 ? current + 1 : current + 2;
+        mapping.putInt(0, MAGIC);
+        mapping.putLong(SEQUENCE, sequence);
+        fence = sequence;
+        ByteBuffer target = mapping.duplicate();
+        target.position(HEADER);
+        target.put(payload);
+        mapping.putInt(LENGTH, payload.length);
+        mapping.putLong(CHECKSUM, checksum(payload));
+        fence = sequence;
+        mapping.putLong(SEQUENCE, sequence + 1);
+        return sequence + 1;
+    }
+
+    private synchronized ConfigPatch read(String revision) throws IOException {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            if (mapping == null || mapping.capacity() < channel.size()) {
+                if (channel.size() < HEADER) {
+                    throw new IllegalStateException("No configurations shared yet");
+                }
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int magic = mapping.getInt(0);
+            if (magic == 0) {
+                throw new IllegalStateException("No configurations shared yet");
+            } else if (magic != MAGIC) {
+                throw new IOException("Not a shared snapshot file");
+            }
+            long sequence = mapping.getLong(SEQUENCE);
+            loadFence();
+            if (sequence % 2 != 0) {
+                Thread.yield();
+                continue;
+            }
+            if (String.valueOf(sequence).equals(revision)) {
+                return ConfigPatch.notModified();
+            }
+            if (sequence == lastSequence && lastConfigs != null) {
+                return ConfigPatch.full(String.valueOf(sequence), lastConfigs);
+            }
+            int length = mapping.getInt(LENGTH);
+            long checksum = mapping.getLong(CHECKSUM);
+            if (length < 0 || HEADER + length > mapping.capacity()) {
+                // written past the mapping, remap and retry
+                mapping = null;
+                continue;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer source = mapping.duplicate();
+            source.position(HEADER);
+            source.get(payload);
+            loadFence();
+            if (mapping.getLong(SEQUENCE) != sequence) {
+                continue;
+            }
+            if (checksum(payload) == checksum) {
+                lastSequence = sequence;
+                lastConfigs = DataCodec.decodeLazily(ByteBuffer.wrap(payload));
+                return ConfigPatch.full(String.valueOf(sequence), lastConfigs);
+            }
+        }
+        throw new IllegalStateException("Shared configurations kept changing while read");
+    }
+
+    private static long loadFence() {
+        return fence;
+    }
+
+    private static long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+}
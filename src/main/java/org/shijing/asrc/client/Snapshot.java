@@ -0,0 +1,260 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.IData;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable, versioned view of all configurations. A new snapshot is built on every update and
+ * published with a single reference swap, so readers never observe a half-applied update.
+ */
+final class Snapshot {
+    static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), 0L, null);
+
+    final Map<String, IData> configs;
+    final long version;
+    /** Revision assigned by the remote service, null if unknown. */
+    final String revision;
+    /** The configurations if they are kept off-heap, null if they are on heap. */
+    final OffHeapConfigs offHeap;
+    /** Keys in ascending order, built on the first prefix query. */
+    private volatile String[] sortedKeys;
+
+    private Snapshot(Map<String, IData> configs, long version, String revision) {
+        this.configs = configs;
+        this.version = version;
+        this.revision = revision;
+        this.offHeap = configs instanceof OffHeapConfigs ? (OffHeapConfigs) configs : null;
+    }
+
+    /**
+     * Create the successor of this snapshot. Values equal to the ones of this snapshot keep the
+     * instances of this snapshot, so unchanged values are compared by identity and the fetched
+     * copies can be collected young.
+     *
+     * @param configs configurations of the new snapshot, copied so later changes to it by the
+     *     caller are not visible
+     * @param revision remote revision of {@code configs}, or null if unknown
+     * @return a snapshot whose version is strictly greater than this one
+     */
+    Snapshot next(Map<String, IData> configs, String revision) {
+        Map<String, IData> nowConfigs = new HashMap<>((int) (configs.size() / 0.75f) + 1);
+        for (Map.Entry<String, IData> entry : configs.entrySet()) {
+            IData data = entry.getValue();
+            IData oldData = this.configs.get(entry.getKey());
+            if (oldData != null && oldData != data && oldData.equals(data)) {
+                data = oldData;
+            }
+            nowConfigs.put(entry.getKey(), data);
+        }
+        return new Snapshot(Collections.unmodifiableMap(nowConfigs), version + 1, revision);
+    }
+
+    /**
+     * Create the successor of this snapshot without copying {@code configs}.
+     *
+     * @param configs configurations of the new snapshot, must not be changed afterwards
+     * @param revision remote revision of {@code configs}, or null if unknown
+     * @return a snapshot whose version is strictly greater than this one
+     */
+    Snapshot wrap(Map<String, IData> configs, String revision) {
+        return new Snapshot(Collections.unmodifiableMap(configs), version + 1, revision);
+    }
+
+    /**
+     * Create the successor of this snapshot keeping {@code configs} in an off-heap table.
+     *
+     * @param configs configurations of the new snapshot, encoded into the table
+     * @param revision remote revision of {@code configs}, or null if unknown
+     * @return a snapshot whose version is strictly greater than this one
+     */
+    Snapshot nextOffHeap(Map<String, IData> configs, String revision) {
+        return new Snapshot(OffHeapConfigs.of(configs), version + 1, revision);
+    }
+
+    /**
+     * Create the successor of this snapshot by applying {@code deltas} to it. The successor of an
+     * off-heap snapshot is off-heap as well.
+     *
+     * @param deltas changes keyed by configuration key
+     * @param revision remote revision after the changes
+     * @return a snapshot whose version is strictly greater than this one
+     */
+    Snapshot apply(Map<String, DataDelta> deltas, String revision) {
+        if (offHeap != null) {
+            return new Snapshot(offHeap.apply(deltas), version + 1, revision);
+        }
+        Map<String, IData> nowConfigs = new HashMap<>(configs);
+        for (Map.Entry<String, DataDelta> entry : deltas.entrySet()) {
+            DataDelta delta = entry.getValue();
+            switch (delta.deltaType) {
+                case ADDITION:
+                case UPDATE:
+                    nowConfigs.put(entry.getKey(), delta.nowData);
+                    break;
+                case DELETION:
+                    nowConfigs.remove(entry.getKey());
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new Snapshot(Collections.unmodifiableMap(nowConfigs), version + 1, revision);
+    }
+
+    IData get(String key) {
+        return configs.get(key);
+    }
+
+    /**
+     * Typed reads of the client and of pinned views. Numbers and booleans of an off-heap table are
+     * read without decoding them into {@link IData}.
+     *
+     * @param client counts a miss if {@code key} is absent
+     */
+    int getInt(String key, int defaultValue, RemotePropertiesClient client) {
+        if (offHeap != null) {
+            int entry = offHeap.find(key);
+            if (entry >= 0 && offHeap.isPrimitive(entry)) {
+                return offHeap.intAt(entry);
+            }
+        }
+        IData data = lookup(key, client);
+        return data == null || !data.isInt() ? defaultValue : data.toInt();
+    }
+
+    /** @see #getInt(String, int, RemotePropertiesClient) */
+    double getDouble(String key, double defaultValue, RemotePropertiesClient client) {
+        if (offHeap != null) {
+            int entry = offHeap.find(key);
+            if (entry >= 0 && offHeap.isPrimitive(entry)) {
+                return offHeap.doubleAt(entry);
+            }
+        }
+        IData data = lookup(key, client);
+        return data == null || !data.isDouble() ? defaultValue : data.toDouble();
+    }
+
+    /** @see #getInt(String, int, RemotePropertiesClient) */
+    boolean getBoolean(String key, boolean defaultValue, RemotePropertiesClient client) {
+        if (offHeap != null) {
+            int entry = offHeap.find(key);
+            if (entry >= 0 && offHeap.isPrimitive(entry)) {
+                return offHeap.booleanAt(entry);
+            }
+        }
+        IData data = lookup(key, client);
+        return data == null ? defaultValue : data.toBool();
+    }
+
+    private IData lookup(String key, RemotePropertiesClient client) {
+        IData data = configs.get(key);
+        if (data == null) {
+            client.recordMiss(key);
+        }
+        return data;
+    }
+
+    /** @return read-only view of the configurations whose key starts with {@code prefix}. */
+    Map<String, IData> withPrefix(String prefix) {
+        String[] keys = sortedKeys();
+        int from = Arrays.binarySearch(keys, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        // Keys with the prefix are contiguous, find the first one after them.
+        int low = from;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].startsWith(prefix)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return new PrefixView(prefix, keys, from, low);
+    }
+
+    private String[] sortedKeys() {
+        String[] keys = sortedKeys;
+        if (keys == null) {
+            keys = configs.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            sortedKeys = keys;
+        }
+        return keys;
+    }
+
+    /** Configurations of a key range of the sorted index, iterated in key order. */
+    private final class PrefixView extends AbstractMap<String, IData> {
+        private final String prefix;
+        private final String[] keys;
+        private final int from;
+        private final int to;
+
+        PrefixView(String prefix, String[] keys, int from, int to) {
+            this.prefix = prefix;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public IData get(Object key) {
+            return key instanceof String && ((String) key).startsWith(prefix)
+                    ? configs.get(key)
+                    : null;
+        }
+
+        @Override
+        public Set<Entry<String, IData>> entrySet() {
+            return new AbstractSet<Entry<String, IData>>() {
+                @Override
+                public int size() {
+                    return to - from;
+                }
+
+                @Override
+                public Iterator<Entry<String, IData>> iterator() {
+                    return new Iterator<Entry<String, IData>>() {
+                        private int next = from;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < to;
+                        }
+
+                        @Override
+                        public Entry<String, IData> next() {
+                            if (next >= to) {
+                                throw new NoSuchElementException();
+                            }
+                            String key = keys[next++];
+                            return new SimpleImmutableEntry<>(key, configs.get(key));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.shijing.asrc.client;
+
+import org.shijing.asrc.client.model.DataCodec;
+import org.shijing.asrc.client.model.IData;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local copy of the last applied snapshot, used to serve configurations right after a restart
+ * until the first fetch completes.
+ *
+ * <p>Layout: magic, format version, revision, then the configurations encoded by {@link
+ * DataCodec}. The revision is written as a length followed by UTF-8 bytes, a length of -1 stands
+ * for null. Values of types the codec cannot encode are not persisted.
+ */
+final class SnapshotFile {
+    private static final int MAGIC = 0x41535243; // "ASRC"
+    private static final byte FORMAT_VERSION = 2;
+
+    private SnapshotFile() {}
+
+    /**
+     * Write {@code snapshot} to {@code file} atomically: the content goes to a temporary file in
+     * the same directory first, which then replaces {@code file}.
+     */
+    static void write(Path file, Snapshot snapshot) throws IOException {
+        Map<String, IData> configs = snapshot.configs;
+        if (!configs.values().stream().allMatch(DataCodec::canEncode)) {
+            configs = new HashMap<>(configs);
+            configs.values().removeIf(data -> !DataCodec.canEncode(data));
+        }
+        byte[] payload = DataCodec.encode(configs);
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(FORMAT_VERSION);
+                if (snapshot.revision == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] revision = snapshot.revision.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(revision.length);
+                    out.write(revision);
+                }
+                out.write(payload);
+            }
+            Files.move(
+                    tmp,
+                    file,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Map {@code file} into memory. Only the keys are decoded up front, values are decoded on
+     * first access.
+     *
+     * @return the persisted configurations as a {@link ConfigPatch.PatchType#FULL} patch
+     */
+    static ConfigPatch read(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 9
+                || buffer.getInt() != MAGIC
+                || buffer.get() != FORMAT_VERSION) {
+            throw new IOException("Not a snapshot file: " + file);
+        }
+        String revision = null;
+        int length = buffer.getInt();
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            revision = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return ConfigPatch.full(revision, DataCodec.decodeLazily(buffer));
+    }
+}
@@ -10,8 +10,13 @@ public class BoolData implements IData {
         this.value = v;
     }
 
+    /** @return {@link #TRUE} or {@link #FALSE}. */
+    public static BoolData valueOf(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
     public static BoolData fromString(String raw) {
-        return new BoolData(Boolean.valueOf(raw));
+        return valueOf(Boolean.parseBoolean(raw));
     }
 
     @Override
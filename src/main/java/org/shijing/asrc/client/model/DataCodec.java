@@ -0,0 +1,449 @@
+package org.shijing.asrc.client.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact binary encoding of configuration maps and delta maps.
+ *
+ * <p>A payload starts with a format version and a kind byte, followed by a string dictionary and
+ * the entries. The dictionary holds every key and every string value occurring more than once,
+ * entries refer to them by index. Lengths, counts and indexes are unsigned varints, integers are
+ * zigzag varints and doubles are 8 bytes big-endian. Every value is prefixed by a type tag.
+ *
+ * <p>Only {@link BoolData}, {@link IntData}, {@link DoubleData}, {@link StringData} and {@link
+ * JsonData} can be encoded, the latter as its raw text.
+ */
+public final class DataCodec {
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte KIND_CONFIGS = 0;
+    private static final byte KIND_DELTAS = 1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_STRING_REF = 6;
+    private static final byte TAG_JSON = 7;
+
+    private static final DataDelta.DeltaType[] DELTA_TYPES = DataDelta.DeltaType.values();
+
+    private DataCodec() {}
+
+    /** @return true if {@code data} is of a type this codec can encode. */
+    public static boolean canEncode(IData data) {
+        return data instanceof BoolData
+                || data instanceof IntData
+                || data instanceof DoubleData
+                || data instanceof StringData
+                || data instanceof JsonData;
+    }
+
+    public static byte[] encode(Map<String, IData> configs) {
+        Dictionary dictionary = new Dictionary();
+        configs.forEach(
+                (key, data) -> {
+                    dictionary.addKey(key);
+                    dictionary.addValue(data);
+                });
+        Writer writer = new Writer(configs.size() * 8 + 16);
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeByte(KIND_CONFIGS);
+        dictionary.writeTo(writer);
+        writer.writeVarint(configs.size());
+        configs.forEach(
+                (key, data) -> {
+                    writer.writeVarint(dictionary.indexOf(key));
+                    writeValue(writer, dictionary, data);
+                });
+        return writer.toByteArray();
+    }
+
+    public static byte[] encodeDeltas(Map<String, DataDelta> deltas) {
+        Dictionary dictionary = new Dictionary();
+        deltas.forEach(
+                (key, delta) -> {
+                    dictionary.addKey(key);
+                    dictionary.addValue(delta.oldData);
+                    dictionary.addValue(delta.nowData);
+                });
+        Writer writer = new Writer(deltas.size() * 12 + 16);
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeByte(KIND_DELTAS);
+        dictionary.writeTo(writer);
+        writer.writeVarint(deltas.size());
+        deltas.forEach(
+                (key, delta) -> {
+                    writer.writeVarint(dictionary.indexOf(key));
+                    writer.writeByte((byte) delta.deltaType.ordinal());
+                    writeValue(writer, dictionary, delta.oldData);
+                    writeValue(writer, dictionary, delta.nowData);
+                });
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decode a payload produced by {@link #encode(Map)}, advancing the position of {@code
+     * buffer} past it.
+     */
+    public static Map<String, IData> decode(ByteBuffer buffer) {
+        Map<String, IData> configs = new HashMap<>();
+        decode(buffer, configs::put);
+        return configs;
+    }
+
+    /**
+     * Decode a payload produced by {@link #encode(Map)} entry by entry, without building a map.
+     *
+     * @param buffer the payload, its position is advanced past it
+     * @param sink receives every key and its value in encoding order
+     */
+    public static void decode(ByteBuffer buffer, BiConsumer<String, IData> sink) {
+        String[] dictionary = readHeader(buffer, KIND_CONFIGS);
+        int count = readVarint(buffer);
+        for (int i = 0; i < count; i++) {
+            String key = readEntry(buffer, dictionary);
+            sink.accept(key, readValue(buffer, dictionary));
+        }
+    }
+
+    /**
+     * Decode only the keys of a payload produced by {@link #encode(Map)}, values are decoded on
+     * first access and cached. The returned map is read-only and keeps a reference to {@code
+     * buffer}, which must not be changed afterwards; the position of {@code buffer} is left
+     * unchanged.
+     */
+    public static Map<String, IData> decodeLazily(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate();
+        String[] dictionary = readHeader(view, KIND_CONFIGS);
+        int count = readVarint(view);
+        Map<String, Integer> offsets = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String key = readEntry(view, dictionary);
+            offsets.put(key, view.position());
+            skipValue(view);
+        }
+        return new LazyConfigs(view, dictionary, offsets);
+    }
+
+    /**
+     * Decode a payload produced by {@link #encodeDeltas(Map)}, advancing the position of {@code
+     * buffer} past it.
+     */
+    public static Map<String, DataDelta> decodeDeltas(ByteBuffer buffer) {
+        String[] dictionary = readHeader(buffer, KIND_DELTAS);
+        int count = readVarint(buffer);
+        Map<String, DataDelta> deltas = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String key = readEntry(buffer, dictionary);
+            int ordinal = buffer.get() & 0xff;
+            if (ordinal >= DELTA_TYPES.length) {
+                throw new IllegalArgumentException("Unknown delta type " + ordinal);
+            }
+            DataDelta.DeltaType deltaType = DELTA_TYPES[ordinal];
+            IData oldData = readValue(buffer, dictionary);
+            IData nowData = readValue(buffer, dictionary);
+            deltas.put(key, new DataDelta(oldData, nowData, deltaType));
+        }
+        return deltas;
+    }
+
+    private static String[] readHeader(ByteBuffer buffer, byte kind) {
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported format version " + version);
+        }
+        byte actualKind = buffer.get();
+        if (actualKind != kind) {
+            throw new IllegalArgumentException("Unexpected payload kind " + actualKind);
+        }
+        String[] dictionary = new String[readVarint(buffer)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = readString(buffer);
+        }
+        return dictionary;
+    }
+
+    private static void writeValue(Writer writer, Dictionary dictionary, IData data) {
+        if (data == null) {
+            writer.writeByte(TAG_NULL);
+        } else if (data instanceof BoolData) {
+            writer.writeByte(data.toBool() ? TAG_TRUE : TAG_FALSE);
+        } else if (data instanceof IntData) {
+            writer.writeByte(TAG_INT);
+            int value = data.toInt();
+            writer.writeVarint((value << 1) ^ (value >> 31));
+        } else if (data instanceof DoubleData) {
+            writer.writeByte(TAG_DOUBLE);
+            writer.writeLong(Double.doubleToLongBits(data.toDouble()));
+        } else if (data instanceof StringData) {
+            String value = data.toString();
+            int index = dictionary.indexOf(value);
+            if (index >= 0) {
+                writer.writeByte(TAG_STRING_REF);
+                writer.writeVarint(index);
+            } else {
+                writer.writeByte(TAG_STRING);
+                writer.writeString(value);
+            }
+        } else if (data instanceof JsonData) {
+            writer.writeByte(TAG_JSON);
+            writer.writeBytes(((JsonData) data).toBytes());
+        } else {
+            throw new IllegalArgumentException("Cannot encode " + data.getClass().getName());
+        }
+    }
+
+    private static IData readValue(ByteBuffer buffer, String[] dictionary) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return BoolData.FALSE;
+            case TAG_TRUE:
+                return BoolData.TRUE;
+            case TAG_INT:
+                int raw = readVarint(buffer);
+                return IntData.valueOf((raw >>> 1) ^ -(raw & 1));
+            case TAG_DOUBLE:
+                return new DoubleData(Double.longBitsToDouble(buffer.getLong()));
+            case TAG_STRING:
+                return new StringData(readString(buffer));
+            case TAG_STRING_REF:
+                return StringData.valueOf(readEntry(buffer, dictionary));
+            case TAG_JSON:
+                byte[] json = new byte[readVarint(buffer)];
+                buffer.get(json);
+                return new JsonData(json);
+            default:
+                throw new IllegalArgumentException("Unknown type tag " + tag);
+        }
+    }
+
+    private static void skipValue(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case TAG_INT:
+            case TAG_STRING_REF:
+                readVarint(buffer);
+                break;
+            case TAG_DOUBLE:
+                buffer.position(buffer.position() + 8);
+                break;
+            case TAG_STRING:
+            case TAG_JSON:
+                int length = readVarint(buffer);
+                buffer.position(buffer.position() + length);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String readEntry(ByteBuffer buffer, String[] dictionary) {
+        int index = readVarint(buffer);
+        if (index < 0 || index >= dictionary.length) {
+            throw new IllegalArgumentException("Unknown dictionary entry " + index);
+        }
+        return dictionary[index];
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarint(buffer);
+        String value;
+        if (buffer.hasArray()) {
+            value =
+                    new String(
+                            buffer.array(),
+                            buffer.arrayOffset() + buffer.position(),
+                            length,
+                            StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /** Strings written once and referred to by index. */
+    private static final class Dictionary {
+        private final Map<String, Integer> indexes = new LinkedHashMap<>();
+        private final Map<String, Boolean> seenValues = new HashMap<>();
+
+        void addKey(String key) {
+            indexes.putIfAbsent(key, indexes.size());
+        }
+
+        /** String values are added once they are seen for the second time. */
+        void addValue(IData data) {
+            if (data instanceof StringData) {
+                String value = data.toString();
+                if (seenValues.put(value, Boolean.TRUE) != null) {
+                    indexes.putIfAbsent(value, indexes.size());
+                }
+            }
+        }
+
+        int indexOf(String value) {
+            Integer index = indexes.get(value);
+            return index == null ? -1 : index;
+        }
+
+        void writeTo(Writer writer) {
+            writer.writeVarint(indexes.size());
+            for (String value : indexes.keySet()) {
+                writer.writeString(value);
+            }
+        }
+    }
+
+    /** Growable byte array with varint support. */
+    private static final class Writer {
+        private byte[] bytes;
+        private int size = 0;
+
+        Writer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(byte b) {
+            ensureCapacity(1);
+            bytes[size++] = b;
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** Write {@code value} prefixed by its length. */
+        void writeBytes(byte[] value) {
+            writeVarint(value.length);
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /** Read-only map over an encoded payload, decoding and caching values on demand. */
+    private static final class LazyConfigs extends AbstractMap<String, IData> {
+        private final ByteBuffer buffer;
+        private final String[] dictionary;
+        private final Map<String, Integer> offsets;
+        private final Map<String, IData> decoded;
+
+        LazyConfigs(ByteBuffer buffer, String[] dictionary, Map<String, Integer> offsets) {
+            this.buffer = buffer;
+            this.dictionary = dictionary;
+            this.offsets = offsets;
+            this.decoded = new ConcurrentHashMap<>(offsets.size());
+        }
+
+        @Override
+        public IData get(Object key) {
+            IData data = decoded.get(key);
+            if (data == null) {
+                Integer offset = offsets.get(key);
+                if (offset == null) {
+                    return null;
+                }
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset);
+                data = readValue(view, dictionary);
+                if (data != null) {
+                    decoded.put((String) key, data);
+                }
+            }
+            return data;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return offsets.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return offsets.size();
+        }
+
+        @Override
+        public Set<Entry<String, IData>> entrySet() {
+            return new AbstractSet<Entry<String, IData>>() {
+                @Override
+                public Iterator<Entry<String, IData>> iterator() {
+                    Iterator<String> keys = offsets.keySet().iterator();
+                    return new Iterator<Entry<String, IData>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return keys.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, IData> next() {
+                            String key = keys.next();
+                            return new SimpleImmutableEntry<>(key, get(key));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return offsets.size();
+                }
+            };
+        }
+    }
+}
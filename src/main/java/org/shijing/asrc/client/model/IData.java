@@ -17,6 +17,16 @@ public interface IData {
 
     double toDouble();
 
+    /** @return whether {@link #toInt()} returns a value instead of throwing. */
+    default boolean isInt() {
+        return true;
+    }
+
+    /** @return whether {@link #toDouble()} returns a value instead of throwing. */
+    default boolean isDouble() {
+        return true;
+    }
+
     String extKey();
 
     int compareTo(IData rhs);
@@ -1,15 +1,33 @@
 package org.shijing.asrc.client.model;
 
 public class IntData implements IData {
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1023;
+    private static final IntData[] CACHE = new IntData[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new IntData(CACHE_LOW + i);
+        }
+    }
+
     private final int value;
 
     public IntData(int value) {
         this.value = value;
     }
 
+    /** @return a shared instance for small values, a new instance otherwise. */
+    public static IntData valueOf(int value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return CACHE[value - CACHE_LOW];
+        }
+        return new IntData(value);
+    }
+
     public static IData fromString(String raw) {
         try {
-            return new IntData(Integer.valueOf(raw));
+            return valueOf(Integer.parseInt(raw));
         } catch (NumberFormatException e) {
             throw new RuntimeException("Cannot cast '" + raw + "' to integer");
         }
@@ -0,0 +1,587 @@
+package org.shijing.asrc.client.model;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structured configuration value holding raw JSON text, for configurations like routing tables or
+ * rate limit maps.
+ *
+ * <p>Nothing is parsed until first read, and then only as deep as the read goes: an object or
+ * array records where its members start and end and parses a member only when it is read. Members
+ * share the bytes of the whole value. Parsed members are cached on the instance, and unchanged
+ * values keep their instance across snapshots, so a configuration is parsed once per change no
+ * matter how many getters or listeners read it.
+ *
+ * <p>Paths are dot separated, a segment made of digits indexes an array, e.g. {@code
+ * "routes.eu.0.weight"}. Getters return the default value if the path is absent, has another type
+ * or the JSON is malformed.
+ */
+public final class JsonData implements IData {
+    public static final String EXT_KEY = "json";
+
+    /** Parsed form of a malformed value. */
+    private static final Object MALFORMED = new Object();
+    /** Parsed form of JSON null. */
+    private static final Object NULL = new Object();
+
+    private final byte[] bytes;
+    private final int start;
+    private final int end;
+    /**
+     * Parsed form, one of {@code Map<String, JsonData>}, {@code List<JsonData>}, a scalar {@link
+     * IData}, {@code NULL} or {@code MALFORMED}; null until first read.
+     */
+    private volatile Object parsed;
+
+    /** @param bytes UTF-8 JSON text, not copied so it must not be changed afterwards */
+    public JsonData(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    private JsonData(byte[] bytes, int start, int end) {
+        this.bytes = bytes;
+        this.start = start;
+        this.end = end;
+    }
+
+    public static JsonData fromString(String json) {
+        return new JsonData(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** @return a copy of the raw UTF-8 text of this value. */
+    public byte[] toBytes() {
+        byte[] copy = new byte[end - start];
+        System.arraycopy(bytes, start, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * Parses the whole value, unlike the getters which only parse what they read.
+     *
+     * @return false if this value or any value nested in it is not well-formed JSON
+     */
+    public boolean isValid() {
+        Deque<JsonData> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object value = pending.pop().parsed();
+            if (value == MALFORMED) {
+                return false;
+            }
+            if (value instanceof Map) {
+                for (Object member : ((Map<?, ?>) value).values()) {
+                    pending.push((JsonData) member);
+                }
+            } else if (value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    pending.push((JsonData) item);
+                }
+            }
+        }
+        return true;
+    }
+
+    /** @return the value at {@code path}, this value for an empty path, or null if absent. */
+    public JsonData get(String path) {
+        if (path.isEmpty()) {
+            return this;
+        }
+        JsonData node = this;
+        int from = 0;
+        while (node != null && from <= path.length()) {
+            int to = path.indexOf('.', from);
+            if (to < 0) {
+                to = path.length();
+            }
+            node = node.child(path.substring(from, to));
+            from = to + 1;
+        }
+        return node;
+    }
+
+    private JsonData child(String segment) {
+        Object value = parsed();
+        if (value instanceof Map) {
+            return (JsonData) ((Map<?, ?>) value).get(segment);
+        }
+        if (value instanceof List) {
+            List<?> items = (List<?>) value;
+            int index = parseIndex(segment);
+            return index >= 0 && index < items.size() ? (JsonData) items.get(index) : null;
+        }
+        return null;
+    }
+
+    private static int parseIndex(String segment) {
+        if (segment.isEmpty() || segment.length() > 9) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /** @return members of this object, empty if this is not an object. */
+    @SuppressWarnings("unchecked")
+    public Map<String, JsonData> asMap() {
+        Object value = parsed();
+        return value instanceof Map ? (Map<String, JsonData>) value : Collections.emptyMap();
+    }
+
+    /** @return items of this array, empty if this is not an array. */
+    @SuppressWarnings("unchecked")
+    public List<JsonData> asList() {
+        Object value = parsed();
+        return value instanceof List ? (List<JsonData>) value : Collections.emptyList();
+    }
+
+    public int getInt(String path, int defaultValue) {
+        IData scalar = scalarAt(path);
+        return scalar != null && scalar.isInt() ? scalar.toInt() : defaultValue;
+    }
+
+    public double getDouble(String path, double defaultValue) {
+        IData scalar = scalarAt(path);
+        return scalar != null && scalar.isDouble() ? scalar.toDouble() : defaultValue;
+    }
+
+    public boolean getBoolean(String path, boolean defaultValue) {
+        IData scalar = scalarAt(path);
+        return scalar instanceof BoolData ? scalar.toBool() : defaultValue;
+    }
+
+    /** @return the string at {@code path}, or the JSON text if it is an object or array. */
+    public String getString(String path, String defaultValue) {
+        JsonData node = get(path);
+        if (node == null || node.parsed() == NULL || node.parsed() == MALFORMED) {
+            return defaultValue;
+        }
+        IData scalar = node.scalar();
+        return scalar != null ? scalar.toString() : node.toString();
+    }
+
+    private IData scalarAt(String path) {
+        JsonData node = get(path);
+        return node == null ? null : node.scalar();
+    }
+
+    private IData scalar() {
+        Object value = parsed();
+        return value instanceof IData ? (IData) value : null;
+    }
+
+    private Object parsed() {
+        Object value = parsed;
+        if (value == null) {
+            try {
+                value = new Parser(bytes, start, end).parse();
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                value = MALFORMED;
+            }
+            parsed = value;
+        }
+        return value;
+    }
+
+    @Override
+    public DataType getType() {
+        return DataType.CUSTOMIZED;
+    }
+
+    @Override
+    public String extKey() {
+        return EXT_KEY;
+    }
+
+    @Override
+    public boolean toBool() {
+        IData scalar = scalar();
+        return scalar != null && scalar.toBool();
+    }
+
+    @Override
+    public int toInt() {
+        IData scalar = scalar();
+        if (scalar == null) {
+            throw new NumberFormatException("Not a number: " + this);
+        }
+        return scalar.toInt();
+    }
+
+    @Override
+    public double toDouble() {
+        IData scalar = scalar();
+        if (scalar == null) {
+            throw new NumberFormatException("Not a number: " + this);
+        }
+        return scalar.toDouble();
+    }
+
+    @Override
+    public boolean isInt() {
+        IData scalar = scalar();
+        return scalar != null && scalar.isInt();
+    }
+
+    @Override
+    public boolean isDouble() {
+        IData scalar = scalar();
+        return scalar != null && scalar.isDouble();
+    }
+
+    @Override
+    public int compareTo(IData rhs) {
+        return toString().compareTo(rhs.toString());
+    }
+
+    /** @return the raw JSON text. */
+    @Override
+    public String toString() {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        JsonData that = (JsonData) o;
+
+        if (end - start != that.end - that.start) {
+            return false;
+        }
+        for (int i = 0; i < end - start; i++) {
+            if (bytes[start + i] != that.bytes[that.start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    /** Parses one level of a value, recording the byte range of nested members. */
+    private static final class Parser {
+        private final byte[] bytes;
+        private final int end;
+        private int pos;
+
+        Parser(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.pos = start;
+            this.end = end;
+        }
+
+        Object parse() {
+            skipWhitespace();
+            Object value;
+            switch (peek()) {
+                case '{':
+                    value = parseObject();
+                    break;
+                case '[':
+                    value = parseArray();
+                    break;
+                case '"':
+                    value = new StringData(readString());
+                    break;
+                case 't':
+                    expectLiteral("true");
+                    value = BoolData.TRUE;
+                    break;
+                case 'f':
+                    expectLiteral("false");
+                    value = BoolData.FALSE;
+                    break;
+                case 'n':
+                    expectLiteral("null");
+                    value = NULL;
+                    break;
+                default:
+                    value = readNumber();
+                    break;
+            }
+            skipWhitespace();
+            if (pos != end) {
+                throw malformed();
+            }
+            return value;
+        }
+
+        private Map<String, JsonData> parseObject() {
+            Map<String, JsonData> members = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return Collections.unmodifiableMap(members);
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw malformed();
+                }
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                members.put(key, readMember());
+                if (next() == '}') {
+                    return Collections.unmodifiableMap(members);
+                }
+            }
+        }
+
+        private List<JsonData> parseArray() {
+            List<JsonData> items = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return Collections.unmodifiableList(items);
+            }
+            while (true) {
+                items.add(readMember());
+                if (next() == ']') {
+                    return Collections.unmodifiableList(items);
+                }
+            }
+        }
+
+        /** @return the unparsed member starting at the current position. */
+        private JsonData readMember() {
+            skipWhitespace();
+            int memberStart = pos;
+            skipValue();
+            JsonData member = new JsonData(bytes, memberStart, pos);
+            skipWhitespace();
+            return member;
+        }
+
+        /** @return the separator after a member, a comma or a closing bracket. */
+        private byte next() {
+            byte b = peek();
+            if (b != ',' && b != '}' && b != ']') {
+                throw malformed();
+            }
+            pos++;
+            return b;
+        }
+
+        private void skipValue() {
+            byte first = peek();
+            if (first == '"') {
+                skipString();
+            } else if (first == '{' || first == '[') {
+                int depth = 0;
+                do {
+                    byte b = peek();
+                    if (b == '"') {
+                        skipString();
+                        continue;
+                    }
+                    if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (b == '}' || b == ']') {
+                        depth--;
+                    }
+                    pos++;
+                } while (depth > 0);
+            } else {
+                while (pos < end && !isDelimiter(bytes[pos])) {
+                    pos++;
+                }
+            }
+        }
+
+        private void skipString() {
+            pos++;
+            while (peek() != '"') {
+                pos += peek() == '\\' ? 2 : 1;
+            }
+            pos++;
+        }
+
+        private String readString() {
+            pos++;
+            int runStart = pos;
+            StringBuilder builder = null;
+            while (true) {
+                byte b = peek();
+                if (b == '"') {
+                    String run = textFrom(runStart, StandardCharsets.UTF_8);
+                    pos++;
+                    return builder == null ? run : builder.append(run).toString();
+                }
+                if (b != '\\') {
+                    pos++;
+                    continue;
+                }
+                if (builder == null) {
+                    builder = new StringBuilder();
+                }
+                builder.append(textFrom(runStart, StandardCharsets.UTF_8));
+                pos++;
+                byte escaped = peek();
+                pos++;
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        builder.append((char) escaped);
+                        break;
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > end) {
+                            throw malformed();
+                        }
+                        builder.append(
+                                (char)
+                                        Integer.parseInt(
+                                                new String(
+                                                        bytes, pos, 4, StandardCharsets.US_ASCII),
+                                                16));
+                        pos += 4;
+                        break;
+                    default:
+                        throw malformed();
+                }
+                runStart = pos;
+            }
+        }
+
+        /** Read a number of the JSON grammar, so {@code NaN}, {@code +1} or {@code 01} fail. */
+        private IData readNumber() {
+            int numberStart = pos;
+            boolean integral = true;
+            if (peek() == '-') {
+                pos++;
+            }
+            if (peek() == '0') {
+                pos++;
+            } else {
+                skipDigits();
+            }
+            if (pos < end && bytes[pos] == '.') {
+                integral = false;
+                pos++;
+                skipDigits();
+            }
+            if (pos < end && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+                integral = false;
+                pos++;
+                if (peek() == '+' || peek() == '-') {
+                    pos++;
+                }
+                skipDigits();
+            }
+            if (pos < end && !isDelimiter(bytes[pos])) {
+                throw malformed();
+            }
+            String text = textFrom(numberStart, StandardCharsets.US_ASCII);
+            try {
+                if (integral) {
+                    long value = Long.parseLong(text);
+                    if (value == (int) value) {
+                        return IntData.valueOf((int) value);
+                    }
+                }
+                return new DoubleData(Double.parseDouble(text));
+            } catch (NumberFormatException e) {
+                throw malformed();
+            }
+        }
+
+        /** Skip one or more digits. */
+        private void skipDigits() {
+            if (!isDigit(peek())) {
+                throw malformed();
+            }
+            while (pos < end && isDigit(bytes[pos])) {
+                pos++;
+            }
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+
+        /** @return text from {@code from} up to the current position. */
+        private String textFrom(int from, Charset charset) {
+            return new String(bytes, from, pos - from, charset);
+        }
+
+        private void expectLiteral(String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                expect(literal.charAt(i));
+            }
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw malformed();
+            }
+            pos++;
+        }
+
+        private byte peek() {
+            if (pos >= end) {
+                throw malformed();
+            }
+            return bytes[pos];
+        }
+
+        private void skipWhitespace() {
+            while (pos < end
+                    && (bytes[pos] == ' '
+                            || bytes[pos] == '\t'
+                            || bytes[pos] == '\n'
+                            || bytes[pos] == '\r')) {
+                pos++;
+            }
+        }
+
+        private static boolean isDelimiter(byte b) {
+            return b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\n'
+                    || b == '\r';
+        }
+
+        private IllegalArgumentException malformed() {
+            return new IllegalArgumentException("Malformed JSON at offset " + pos);
+        }
+    }
+}
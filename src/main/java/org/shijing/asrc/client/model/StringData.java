@@ -1,12 +1,84 @@
 package org.shijing.asrc.client.model;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 public class StringData implements IData {
+    private static final int POOL_STRIPES = 16;
+
+    /**
+     * Canonical instances of interned values, striped to spread contention. Both the key and the
+     * instance are weakly held, so values nobody uses any more are evicted by the GC.
+     */
+    private static final Stripe[] POOL = new Stripe[POOL_STRIPES];
+
+    static {
+        for (int i = 0; i < POOL_STRIPES; i++) {
+            POOL[i] = new Stripe();
+        }
+    }
+
+    /** One stripe of the pool, guarded by itself. */
+    private static final class Stripe {
+        final Map<String, WeakReference<StringData>> instances = new WeakHashMap<>();
+    }
+
     private final String value;
+    /** Numeric views of {@code value}, parsed on first use. */
+    private NumericView numeric;
+
+    /** Immutable, so it is safely shared between threads racing to parse it. */
+    static final class NumericView {
+        final boolean isInt;
+        final int intValue;
+        final boolean isDouble;
+        final double doubleValue;
+
+        NumericView(String value) {
+            int parsedInt = 0;
+            boolean parsedAsInt = true;
+            try {
+                parsedInt = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                parsedAsInt = false;
+            }
+            double parsedDouble = 0;
+            boolean parsedAsDouble = true;
+            if (parsedAsInt) {
+                parsedDouble = parsedInt;
+            } else {
+                try {
+                    parsedDouble = Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    parsedAsDouble = false;
+                }
+            }
+            this.isInt = parsedAsInt;
+            this.intValue = parsedInt;
+            this.isDouble = parsedAsDouble;
+            this.doubleValue = parsedDouble;
+        }
+    }
 
     public StringData(String value) {
         this.value = value;
     }
 
+    /** @return the canonical instance of {@code value}, shared by all callers. */
+    public static StringData valueOf(String value) {
+        Stripe stripe = POOL[(value.hashCode() & 0x7fffffff) % POOL_STRIPES];
+        synchronized (stripe) {
+            WeakReference<StringData> ref = stripe.instances.get(value);
+            StringData data = ref == null ? null : ref.get();
+            if (data == null) {
+                data = new StringData(value);
+                stripe.instances.put(value, new WeakReference<>(data));
+            }
+            return data;
+        }
+    }
+
     @Override
     public DataType getType() {
         return DataType.STRING;
@@ -27,14 +99,42 @@ public class StringData implements IData {
         return Boolean.valueOf(value);
     }
 
+    /** @return the numeric views of the value, parsed once and then reused. */
+    NumericView numeric() {
+        NumericView view = numeric;
+        if (view == null) {
+            view = new NumericView(value);
+            numeric = view;
+        }
+        return view;
+    }
+
     @Override
     public int toInt() throws NumberFormatException {
-        return Integer.valueOf(value);
+        NumericView view = numeric();
+        if (!view.isInt) {
+            throw new NumberFormatException("For input string: \"" + value + "\"");
+        }
+        return view.intValue;
     }
 
     @Override
     public double toDouble() throws NumberFormatException {
-        return Double.valueOf(value);
+        NumericView view = numeric();
+        if (!view.isDouble) {
+            throw new NumberFormatException("For input string: \"" + value + "\"");
+        }
+        return view.doubleValue;
+    }
+
+    @Override
+    public boolean isInt() {
+        return numeric().isInt;
+    }
+
+    @Override
+    public boolean isDouble() {
+        return numeric().isDouble;
     }
 
     @Override
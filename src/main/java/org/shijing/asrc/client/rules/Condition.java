@@ -0,0 +1,118 @@
+package org.shijing.asrc.client.rules;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** Test of one context attribute against values, compared by {@link IData#compareTo}. */
+public final class Condition {
+    public enum Operator {
+        EQ,
+        NE,
+        LT,
+        LE,
+        GT,
+        GE,
+        /** Attribute equals any of the values. */
+        IN,
+        /** Attribute equals none of the values. */
+        NOT_IN
+    }
+
+    private final String attribute;
+    private final Operator operator;
+    private final List<IData> values;
+
+    public Condition(String attribute, Operator operator, IData... values) {
+        if (attribute == null || operator == null || values.length == 0) {
+            throw new IllegalArgumentException("Condition needs an attribute, operator and value");
+        }
+        if (values.length > 1 && operator != Operator.IN && operator != Operator.NOT_IN) {
+            throw new IllegalArgumentException(operator + " takes a single value");
+        }
+        this.attribute = attribute;
+        this.operator = operator;
+        this.values = Collections.unmodifiableList(Arrays.asList(values.clone()));
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public List<IData> getValues() {
+        return values;
+    }
+
+    /**
+     * @return whether the attribute of {@code context} passes this condition, false if the
+     *     attribute is absent or cannot be compared to the values.
+     */
+    public boolean matches(Map<String, IData> context) {
+        IData actual = context.get(attribute);
+        if (actual == null) {
+            return false;
+        }
+        try {
+            switch (operator) {
+                case EQ:
+                    return actual.compareTo(values.get(0)) == 0;
+                case NE:
+                    return actual.compareTo(values.get(0)) != 0;
+                case LT:
+                    return actual.compareTo(values.get(0)) < 0;
+                case LE:
+                    return actual.compareTo(values.get(0)) <= 0;
+                case GT:
+                    return actual.compareTo(values.get(0)) > 0;
+                case GE:
+                    return actual.compareTo(values.get(0)) >= 0;
+                case IN:
+                    return isAnyOf(actual);
+                case NOT_IN:
+                    return !isAnyOf(actual);
+                default:
+                    throw new IllegalStateException("Unknown operator " + operator);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private boolean isAnyOf(IData actual) {
+        for (IData value : values) {
+            if (actual.compareTo(value) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Condition that = (Condition) o;
+
+        return attribute.equals(that.attribute)
+                && operator == that.operator
+                && values.equals(that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * attribute.hashCode() + operator.hashCode()) + values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return attribute + " " + operator + " " + values;
+    }
+}
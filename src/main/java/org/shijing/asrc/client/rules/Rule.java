@@ -0,0 +1,72 @@
+package org.shijing.asrc.client.rules;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Serves {@code value} to the contexts passing all conditions and, if the rule is rolled out to a
+ * percentage, falling into its bucket range.
+ */
+public final class Rule {
+    /** Number of buckets a percentage rollout is split into. */
+    static final int BUCKETS = 10000;
+
+    private final List<Condition> conditions;
+    private final String bucketAttribute;
+    private final int fromBucket;
+    private final int toBucket;
+    private final IData value;
+
+    /** Rule serving {@code value} to every context passing {@code conditions}. */
+    public Rule(List<Condition> conditions, IData value) {
+        this(conditions, null, 0, 100, value);
+    }
+
+    /**
+     * Rule serving {@code value} to the contexts passing {@code conditions} whose {@code
+     * bucketAttribute} hashes into {@code [fromPercent, toPercent)}. Contexts without the
+     * attribute never match.
+     *
+     * @param fromPercent lower bound of the bucket range, from 0 to 100 inclusively
+     * @param toPercent upper bound of the bucket range, from 0 to 100 inclusively
+     */
+    public Rule(
+            List<Condition> conditions,
+            String bucketAttribute,
+            double fromPercent,
+            double toPercent,
+            IData value) {
+        if (fromPercent < 0 || toPercent > 100 || fromPercent > toPercent) {
+            throw new IllegalArgumentException(
+                    "Invalid bucket range [" + fromPercent + ", " + toPercent + ")");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Rule needs a value");
+        }
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(conditions));
+        this.bucketAttribute = bucketAttribute;
+        this.fromBucket = (int) Math.round(fromPercent * BUCKETS / 100);
+        this.toBucket = (int) Math.round(toPercent * BUCKETS / 100);
+        this.value = value;
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    public IData getValue() {
+        return value;
+    }
+
+    String getBucketAttribute() {
+        return bucketAttribute;
+    }
+
+    /** @return whether {@code bucket} is in the bucket range of this rule. */
+    boolean inRollout(int bucket) {
+        return bucket >= fromBucket && bucket < toBucket;
+    }
+}
@@ -0,0 +1,155 @@
+package org.shijing.asrc.client.rules;
+
+import org.shijing.asrc.client.model.IData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Targeting rules of all configurations, compiled once so that the configurations of any context
+ * resolve locally.
+ *
+ * <p>A configuration serves the value of its first matching rule, or its default value if no
+ * rule matches. Conditions and bucket hashes shared by many rules are evaluated once per context.
+ */
+public final class RuleSet {
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCHED = 1;
+    private static final byte MISSED = 2;
+    private static final int NO_BUCKET = -1;
+    private static final int UNHASHED = -2;
+
+    /** Distinct conditions of all rules. */
+    private final Condition[] conditions;
+    /** Distinct (bucket attribute, salt) pairs of all rules. */
+    private final String[] bucketAttributes;
+    private final String[] bucketSalts;
+
+    private final String[] keys;
+    private final IData[] defaults;
+    private final CompiledRule[][] rules;
+
+    private static final class CompiledRule {
+        final int[] conditionIds;
+        /** Index into the bucket arrays, or {@code NO_BUCKET}. */
+        final int bucketId;
+        final Rule rule;
+
+        CompiledRule(int[] conditionIds, int bucketId, Rule rule) {
+            this.conditionIds = conditionIds;
+            this.bucketId = bucketId;
+            this.rule = rule;
+        }
+    }
+
+    /**
+     * @param defaults value of every configuration when none of its rules match, configurations
+     *     without a default are absent for such contexts
+     * @param rules ordered rules of every configuration, the first match wins; a configuration's
+     *     key salts its bucket hashes so that rollouts of different configurations are independent
+     */
+    public RuleSet(Map<String, IData> defaults, Map<String, List<Rule>> rules) {
+        Set<String> allKeys = new LinkedHashSet<>(defaults.keySet());
+        allKeys.addAll(rules.keySet());
+
+        Map<Condition, Integer> conditionIds = new HashMap<>();
+        Map<String, Integer> bucketIds = new HashMap<>();
+        List<String> attributes = new ArrayList<>();
+        List<String> salts = new ArrayList<>();
+
+        this.keys = allKeys.toArray(new String[0]);
+        this.defaults = new IData[keys.length];
+        this.rules = new CompiledRule[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            String key = keys[i];
+            this.defaults[i] = defaults.get(key);
+            List<Rule> keyRules = rules.getOrDefault(key, Collections.emptyList());
+            this.rules[i] = new CompiledRule[keyRules.size()];
+            for (int j = 0; j < keyRules.size(); j++) {
+                Rule rule = keyRules.get(j);
+                int[] ids = new int[rule.getConditions().size()];
+                for (int k = 0; k < ids.length; k++) {
+                    ids[k] = conditionIds.computeIfAbsent(
+                            rule.getConditions().get(k), c -> conditionIds.size());
+                }
+                int bucketId = NO_BUCKET;
+                if (rule.getBucketAttribute() != null) {
+                    bucketId =
+                            bucketIds.computeIfAbsent(
+                                    rule.getBucketAttribute() + '\0' + key,
+                                    b -> {
+                                        attributes.add(rule.getBucketAttribute());
+                                        salts.add(key);
+                                        return attributes.size() - 1;
+                                    });
+                }
+                this.rules[i][j] = new CompiledRule(ids, bucketId, rule);
+            }
+        }
+        this.conditions = new Condition[conditionIds.size()];
+        conditionIds.forEach((condition, id) -> this.conditions[id] = condition);
+        this.bucketAttributes = attributes.toArray(new String[0]);
+        this.bucketSalts = salts.toArray(new String[0]);
+    }
+
+    /** @return configurations served to {@code context}. */
+    public Map<String, IData> evaluate(Map<String, IData> context) {
+        byte[] matched = new byte[conditions.length];
+        int[] buckets = new int[bucketAttributes.length];
+        Arrays.fill(buckets, UNHASHED);
+        Map<String, IData> configs = new HashMap<>((int) (keys.length / 0.75f) + 1);
+        for (int i = 0; i < keys.length; i++) {
+            IData value = defaults[i];
+            for (CompiledRule rule : rules[i]) {
+                if (matches(rule, context, matched, buckets)) {
+                    value = rule.rule.getValue();
+                    break;
+                }
+            }
+            if (value != null) {
+                configs.put(keys[i], value);
+            }
+        }
+        return configs;
+    }
+
+    private boolean matches(
+            CompiledRule rule, Map<String, IData> context, byte[] matched, int[] buckets) {
+        for (int id : rule.conditionIds) {
+            if (matched[id] == UNKNOWN) {
+                matched[id] = conditions[id].matches(context) ? MATCHED : MISSED;
+            }
+            if (matched[id] == MISSED) {
+                return false;
+            }
+        }
+        if (rule.bucketId == NO_BUCKET) {
+            return true;
+        }
+        if (buckets[rule.bucketId] == UNHASHED) {
+            IData attribute = context.get(bucketAttributes[rule.bucketId]);
+            buckets[rule.bucketId] =
+                    attribute == null
+                            ? NO_BUCKET
+                            : bucketOf(bucketSalts[rule.bucketId], attribute.toString());
+        }
+        int bucket = buckets[rule.bucketId];
+        return bucket != NO_BUCKET && rule.rule.inRollout(bucket);
+    }
+
+    /** @return stable bucket of {@code value} in {@code [0, Rule.BUCKETS)}, by FNV-1a. */
+    static int bucketOf(String salt, String value) {
+        int hash = 0x811c9dc5;
+        for (byte b : (salt + ':' + value).getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x01000193;
+        }
+        return (int) ((hash & 0xffffffffL) % Rule.BUCKETS);
+    }
+}
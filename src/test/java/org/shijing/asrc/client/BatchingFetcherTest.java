@@ -0,0 +1,110 @@
+package org.shijing.asrc.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+import org.shijing.asrc.client.model.StringData;
+
+public class BatchingFetcherTest {
+
+    private static Map<String, IData> tenant(String name) {
+        return Collections.singletonMap("tenant", new StringData(name));
+    }
+
+    private static Map<String, IData> configsOf(Map<String, IData> context) {
+        return Collections.singletonMap(
+                "length", new IntData(context.get("tenant").toString().length()));
+    }
+
+    @Test
+    public void testFetchesWithinWindowMergeIntoOneBatch()
+            throws ExecutionException, InterruptedException {
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        IBatchFetcher batchFetcher =
+                contexts -> {
+                    batchSizes.add(contexts.size());
+                    List<Map<String, IData>> configs = new ArrayList<>();
+                    contexts.forEach(context -> configs.add(configsOf(context)));
+                    return CompletableFuture.completedFuture(configs);
+                };
+        BatchingFetcher fetcher =
+                new BatchingFetcher(batchFetcher, 50, TimeUnit.MILLISECONDS, 100, 4);
+
+        CompletableFuture<Map<String, IData>> alice = fetcher.fetch(tenant("alice"));
+        CompletableFuture<Map<String, IData>> bob = fetcher.fetch(tenant("bob"));
+        CompletableFuture<Map<String, IData>> aliceAgain = fetcher.fetch(tenant("alice"));
+
+        assertEquals(alice.get().get("length"), new IntData(5));
+        assertEquals(bob.get().get("length"), new IntData(3));
+        assertEquals(aliceAgain.get().get("length"), new IntData(5));
+        assertEquals(batchSizes, Collections.singletonList(2));
+    }
+
+    @Test
+    public void testSingleFetchesAreBounded() throws ExecutionException, InterruptedException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<CompletableFuture<Map<String, IData>>> fetches =
+                Collections.synchronizedList(new ArrayList<>());
+        IFetcher slowFetcher =
+                context -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return CompletableFuture.supplyAsync(
+                            () -> {
+                                try {
+                                    Thread.sleep(10);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                inFlight.decrementAndGet();
+                                return configsOf(context);
+                            });
+                };
+        BatchingFetcher fetcher = new BatchingFetcher(slowFetcher, 1, TimeUnit.MILLISECONDS, 8, 2);
+
+        for (int i = 0; i < 8; i++) {
+            fetches.add(fetcher.fetch(tenant("tenant" + i)));
+        }
+        for (CompletableFuture<Map<String, IData>> fetch : fetches) {
+            assertEquals(fetch.get().get("length"), new IntData(7));
+        }
+        assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testMissingBatchResultFailsEveryFetch() throws InterruptedException {
+        List<List<Map<String, IData>>> responses = new ArrayList<>();
+        responses.add(null);
+        responses.add(Collections.singletonList(configsOf(tenant("alice"))));
+        IBatchFetcher batchFetcher =
+                contexts -> CompletableFuture.completedFuture(responses.remove(0));
+        BatchingFetcher fetcher = new BatchingFetcher(batchFetcher, 1, TimeUnit.SECONDS, 2, 1);
+        for (int i = 0; i < 2; i++) {
+            CompletableFuture<Map<String, IData>> alice = fetcher.fetch(tenant("alice"));
+            CompletableFuture<Map<String, IData>> bob = fetcher.fetch(tenant("bob"));
+            for (CompletableFuture<Map<String, IData>> future : Arrays.asList(alice, bob)) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    throw new AssertionError("Expected a failure");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                } catch (TimeoutException e) {
+                    throw new AssertionError("Fetch never completed", e);
+                }
+            }
+        }
+    }
+}
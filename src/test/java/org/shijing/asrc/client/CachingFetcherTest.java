@@ -0,0 +1,94 @@
+package org.shijing.asrc.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+import org.shijing.asrc.client.model.StringData;
+
+public class CachingFetcherTest {
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final List<CompletableFuture<Map<String, IData>>> pending = new ArrayList<>();
+
+    /** Fetcher counting its fetches, completes them on {@link #completePending()}. */
+    private final IFetcher countingFetcher =
+            context -> {
+                CompletableFuture<Map<String, IData>> future = new CompletableFuture<>();
+                pending.add(future);
+                return future;
+            };
+
+    private void completePending() {
+        for (CompletableFuture<Map<String, IData>> future : pending) {
+            future.complete(
+                    Collections.singletonMap("fetch", new IntData(fetches.incrementAndGet())));
+        }
+        pending.clear();
+    }
+
+    private static Map<String, IData> tenant(String name) {
+        return Collections.singletonMap("tenant", new StringData(name));
+    }
+
+    private CachingFetcher cachingFetcher(int maxEntries) {
+        return new CachingFetcher(
+                countingFetcher, maxEntries, 10, 20, TimeUnit.NANOSECONDS, now::get);
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws ExecutionException, InterruptedException {
+        CachingFetcher fetcher = cachingFetcher(10);
+        CompletableFuture<Map<String, IData>> first = fetcher.fetch(tenant("alice"));
+        fetcher.fetch(tenant("alice"));
+        assertEquals(pending.size(), 1);
+        completePending();
+        assertEquals(first.get().get("fetch"), new IntData(1));
+
+        now.set(5);
+        assertEquals(fetcher.fetch(tenant("alice")).get().get("fetch"), new IntData(1));
+        assertEquals(pending.size(), 0);
+
+        now.set(15);
+        assertEquals(fetcher.fetch(tenant("alice")).get().get("fetch"), new IntData(1));
+        assertEquals(pending.size(), 1);
+        completePending();
+        assertEquals(fetcher.fetch(tenant("alice")).get().get("fetch"), new IntData(2));
+
+        now.set(100);
+        CompletableFuture<Map<String, IData>> expired = fetcher.fetch(tenant("alice"));
+        completePending();
+        assertEquals(expired.get().get("fetch"), new IntData(3));
+
+        assertEquals(fetcher.getHits(), 2);
+        assertEquals(fetcher.getStaleHits(), 1);
+        assertEquals(fetcher.getMisses(), 3);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        CachingFetcher fetcher = cachingFetcher(2);
+        fetcher.fetch(tenant("alice"));
+        fetcher.fetch(tenant("bob"));
+        completePending();
+        fetcher.fetch(tenant("alice"));
+        fetcher.fetch(tenant("carol"));
+        completePending();
+        assertEquals(fetcher.size(), 2);
+        assertEquals(fetcher.getEvictions(), 1);
+
+        fetcher.fetch(tenant("alice"));
+        fetcher.fetch(tenant("bob"));
+        assertEquals(pending.size(), 1);
+    }
+}
@@ -0,0 +1,134 @@
+package org.shijing.asrc.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.shijing.asrc.client.model.BoolData;
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.DoubleData;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+import org.shijing.asrc.client.model.JsonData;
+import org.shijing.asrc.client.model.StringData;
+
+public class OffHeapConfigsTest {
+    private static Map<String, IData> sample() {
+        Map<String, IData> configs = new HashMap<>();
+        configs.put("enabled", BoolData.TRUE);
+        configs.put("disabled", BoolData.FALSE);
+        configs.put("limit", new IntData(-42));
+        configs.put("ratio", new DoubleData(2.75));
+        configs.put("greeting", new StringData("hello"));
+        configs.put("caf\u00e9", new StringData("\u4f60\u597d"));
+        configs.put("\u5e93\u5b58", new StringData("12"));
+        configs.put("settings", JsonData.fromString("{\"retries\":3}"));
+        return configs;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Map<String, IData> configs = sample();
+        for (int i = 0; i < 10000; i++) {
+            configs.put("key." + i, new IntData(i));
+        }
+        OffHeapConfigs table = OffHeapConfigs.of(configs);
+        assertEquals(table.size(), configs.size());
+        assertEquals(table, configs);
+        assertEquals(new HashMap<>(table), configs);
+        assertEquals(table.get("key.9999"), new IntData(9999));
+        assertEquals(((JsonData) table.get("settings")).getInt("retries", 0), 3);
+        assertNull(table.get("key.10000"));
+        assertNull(table.get("caf"));
+        assertFalse(table.containsKey(42));
+    }
+
+    @Test
+    public void testPrimitiveReads() {
+        OffHeapConfigs table = OffHeapConfigs.of(sample());
+        int ratio = table.find("ratio");
+        assertTrue(table.isPrimitive(ratio));
+        assertEquals(table.intAt(ratio), 2);
+        assertEquals(table.doubleAt(ratio), 2.75, 0);
+        assertTrue(table.booleanAt(ratio));
+        assertEquals(table.intAt(table.find("enabled")), 1);
+        assertEquals(table.doubleAt(table.find("limit")), -42.0, 0);
+        assertFalse(table.booleanAt(table.find("disabled")));
+        assertFalse(table.isPrimitive(table.find("\u5e93\u5b58")));
+        assertEquals(table.find("missing"), -1);
+    }
+
+    @Test
+    public void testApplyDeltas() {
+        OffHeapConfigs table = OffHeapConfigs.of(sample());
+        Map<String, DataDelta> deltas = new HashMap<>();
+        deltas.put(
+                "limit",
+                new DataDelta(new IntData(-42), new IntData(7), DataDelta.DeltaType.UPDATE));
+        deltas.put(
+                "greeting",
+                new DataDelta(new StringData("hello"), null, DataDelta.DeltaType.DELETION));
+        deltas.put(
+                "added",
+                new DataDelta(null, new StringData("\u00e9t\u00e9"), DataDelta.DeltaType.ADDITION));
+
+        Map<String, IData> expected = sample();
+        expected.put("limit", new IntData(7));
+        expected.remove("greeting");
+        expected.put("added", new StringData("\u00e9t\u00e9"));
+        assertEquals(table.apply(deltas), expected);
+        assertEquals(table, sample());
+    }
+
+    @Test
+    public void testDeltasApplyAlikeOnAndOffHeap() {
+        Map<String, DataDelta> deltas = new HashMap<>();
+        deltas.put(
+                "limit",
+                new DataDelta(new IntData(-42), new IntData(7), DataDelta.DeltaType.UPDATE));
+        deltas.put(
+                "greeting",
+                new DataDelta(new StringData("hello"), null, DataDelta.DeltaType.DELETION));
+        deltas.put("added", new DataDelta(null, BoolData.TRUE, DataDelta.DeltaType.ADDITION));
+        deltas.put(
+                "ratio",
+                new DataDelta(
+                        new DoubleData(2.75), new DoubleData(1.5), DataDelta.DeltaType.UNCHANGED));
+        deltas.put("enabled", new DataDelta(BoolData.TRUE, null, DataDelta.DeltaType.UNCHANGED));
+
+        Snapshot onHeap = Snapshot.EMPTY.next(sample(), null).apply(deltas, "2");
+        Snapshot offHeap = Snapshot.EMPTY.nextOffHeap(sample(), null).apply(deltas, "2");
+        assertTrue(offHeap.offHeap != null);
+        assertEquals(new HashMap<>(offHeap.configs), new HashMap<>(onHeap.configs));
+        assertEquals(onHeap.get("ratio"), new DoubleData(2.75));
+        assertEquals(onHeap.get("enabled"), BoolData.TRUE);
+    }
+
+    @Test
+    public void testOffHeapClient() {
+        RemotePropertiesClient client = new RemotePropertiesClient();
+        client.setOffHeapStorage(true);
+        client.updateConfigs(sample());
+        assertTrue(client.snapshot.offHeap != null);
+        assertEquals(client.getInt("limit", 0), -42);
+        assertEquals(client.getInt("\u5e93\u5b58", 0), 12);
+        assertEquals(client.getInt("greeting", 5), 5);
+        assertEquals(client.getDouble("missing", 1.5), 1.5, 0);
+        assertTrue(client.getBoolean("enabled", false));
+        assertEquals(client.getStringOrDefault("caf\u00e9", null), "\u4f60\u597d");
+        assertEquals(client.pin().getInt("ratio", 0), 2);
+        assertEquals(
+                client.getByPrefix("dis"), Collections.singletonMap("disabled", BoolData.FALSE));
+
+        client.setOffHeapStorage(false);
+        client.updateConfigs(sample());
+        assertNull(client.snapshot.offHeap);
+        assertEquals(client.getInt("limit", 0), -42);
+        client.close();
+    }
+}
@@ -0,0 +1,328 @@
+package org.shijing.asrc.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.shijing.asrc.client.TestModule.CONFIG_INT_123;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.shijing.asrc.client.model.BoolData;
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+import org.shijing.asrc.client.model.StringData;
+
+public class RemotePropertiesClientTest {
+
+    /** Fetcher resolving {@code CONFIG_INT_123} to the length of the tenant name. */
+    private static final IFetcher TENANT_FETCHER =
+            context ->
+                    CompletableFuture.completedFuture(
+                            Collections.singletonMap(
+                                    CONFIG_INT_123,
+                                    new IntData(context.get("tenant").toString().length())));
+
+    private static IContextProvider tenant(String name) {
+        Map<String, IData> context = Collections.singletonMap("tenant", new StringData(name));
+        return () -> context;
+    }
+
+    @Test
+    public void testClientsHoldIndependentConfigs()
+            throws ExecutionException, InterruptedException {
+        try (RemotePropertiesClient alice = new RemotePropertiesClient();
+                RemotePropertiesClient bob = new RemotePropertiesClient()) {
+            alice.init(tenant("alice"), TENANT_FETCHER).get();
+            bob.init(tenant("bob"), TENANT_FETCHER).get();
+
+            List<Map<String, DataDelta>> aliceDeltas = new ArrayList<>();
+            alice.addListener(this, Collections.singleton(CONFIG_INT_123), aliceDeltas::add);
+            assertEquals(aliceDeltas.size(), 1);
+
+            assertEquals(alice.getInt(CONFIG_INT_123, 0), 5);
+            assertEquals(bob.getInt(CONFIG_INT_123, 0), 3);
+            assertEquals(bob.getHandle(CONFIG_INT_123).getInt(0), 3);
+
+            bob.updateConfigs(Collections.singletonMap(CONFIG_INT_123, new IntData(0)));
+            assertEquals(aliceDeltas.size(), 1);
+            assertEquals(alice.getInt(CONFIG_INT_123, 0), 5);
+        }
+    }
+
+    @Test
+    public void testCloseDropsConfigs() throws ExecutionException, InterruptedException {
+        RemotePropertiesClient client = new RemotePropertiesClient();
+        client.init(tenant("alice"), TENANT_FETCHER).get();
+        client.close();
+        assertFalse(client.getInt(CONFIG_INT_123).isPresent());
+    }
+
+    @Test
+    public void testThrowingFetcherDoesNotBlockLaterUpdates()
+            throws ExecutionException, InterruptedException {
+        AtomicInteger fetches = new AtomicInteger();
+        IFetcher fetcher =
+                context -> {
+                    if (fetches.incrementAndGet() == 1) {
+                        throw new IllegalStateException("boom");
+                    }
+                    return TENANT_FETCHER.fetch(context);
+                };
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            client.setFetcher(fetcher);
+            Map<String, IData> context = tenant("alice").getContext();
+            assertTrue(client.updateContext(context).isCompletedExceptionally());
+            client.updateContext(context).get();
+            assertEquals(fetches.get(), 2);
+            assertEquals(client.getInt(CONFIG_INT_123, 0), 5);
+        }
+    }
+
+    @Test
+    public void testMissedKeysAreBounded() {
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            client.setMetricsSink(new IMetricsSink() {});
+            for (int i = 0; i < 2 * RemotePropertiesClient.MAX_MISSED_KEYS; i++) {
+                client.getInt("missing." + i, 0);
+            }
+            client.getInt("missing.0", 0);
+            Map<String, Long> misses = client.getMissCounts();
+            assertEquals(misses.size(), RemotePropertiesClient.MAX_MISSED_KEYS);
+            assertEquals(misses.get("missing.0"), Long.valueOf(2));
+        }
+    }
+
+    @Test
+    public void testListenerThrowingErrorKeepsReceivingDeltas() {
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        List<Throwable> uncaught = new ArrayList<>();
+        thread.setUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            List<Map<String, DataDelta>> deltas = new ArrayList<>();
+            client.addListener(
+                    this,
+                    Collections.singleton(CONFIG_INT_123),
+                    delta -> {
+                        deltas.add(delta);
+                        if (deltas.size() == 2) {
+                            throw new AssertionError("boom");
+                        }
+                    });
+            for (int i = 1; i <= 4; i++) {
+                client.updateConfigs(Collections.singletonMap(CONFIG_INT_123, new IntData(i)));
+            }
+            assertEquals(deltas.size(), 4);
+            assertEquals(deltas.get(3).get(CONFIG_INT_123).nowData, new IntData(4));
+            assertEquals(uncaught.size(), 1);
+            assertTrue(uncaught.get(0) instanceof AssertionError);
+            assertEquals(client.getPendingDeliveries(), 0);
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+        }
+    }
+
+    @Test
+    public void testUnchangedValuesKeepTheirInstances() {
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            IData first = new StringData("alice");
+            client.updateConfigs(Collections.singletonMap(CONFIG_INT_123, first));
+
+            Map<String, IData> refreshed = new HashMap<>();
+            refreshed.put(CONFIG_INT_123, new StringData("alice"));
+            refreshed.put("other", new IntData(1));
+            client.updateConfigs(refreshed);
+            assertSame(client.snapshot.get(CONFIG_INT_123), first);
+        }
+    }
+
+    @Test
+    public void testNonNumericStringsFallBackToDefault() {
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            client.updateConfigs(Collections.singletonMap(CONFIG_INT_123, new StringData("n/a")));
+            assertEquals(client.getInt(CONFIG_INT_123, 7), 7);
+            assertEquals(client.getDouble(CONFIG_INT_123, 0.5), 0.5, 0);
+            assertFalse(client.getInt(CONFIG_INT_123).isPresent());
+            assertEquals(client.getHandle(CONFIG_INT_123).getInt(7), 7);
+        }
+    }
+
+    @Test
+    public void testPrefixQueriesAndListeners() {
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            Map<String, IData> configs = new HashMap<>();
+            configs.put("payments.limit", new IntData(10));
+            configs.put("payments.currency", new StringData("EUR"));
+            configs.put("paymentsx", new IntData(0));
+            configs.put("feature.checkout.enabled", BoolData.TRUE);
+            configs.put("feature.search.enabled", BoolData.FALSE);
+            configs.put("feature.search.limit", new IntData(5));
+            client.updateConfigs(configs);
+
+            Map<String, IData> payments = client.getByPrefix("payments.");
+            assertEquals(
+                    new ArrayList<>(payments.keySet()),
+                    Arrays.asList("payments.currency", "payments.limit"));
+            assertEquals(payments.get("payments.limit"), new IntData(10));
+            assertEquals(payments.get("paymentsx"), null);
+            assertTrue(client.getByPrefix("missing.").isEmpty());
+
+            List<Map<String, DataDelta>> paymentDeltas = new ArrayList<>();
+            List<Map<String, DataDelta>> enabledDeltas = new ArrayList<>();
+            client.addPrefixListener(this, "payments.", paymentDeltas::add);
+            client.addPatternListener(this, "feature.*.enabled", enabledDeltas::add);
+            assertEquals(paymentDeltas.get(0).keySet().size(), 2);
+            assertEquals(enabledDeltas.get(0).keySet().size(), 2);
+
+            configs.put("payments.limit", new IntData(20));
+            configs.remove("payments.currency");
+            configs.put("paymentsx", new IntData(1));
+            configs.put("feature.search.limit", new IntData(6));
+            client.updateConfigs(configs);
+            assertEquals(paymentDeltas.size(), 2);
+            assertEquals(paymentDeltas.get(1).get("payments.limit").nowData, new IntData(20));
+            assertEquals(paymentDeltas.get(1).get("payments.currency").nowData, null);
+            assertEquals(paymentDeltas.get(1).size(), 2);
+            assertEquals(enabledDeltas.size(), 1);
+
+            assertEquals(payments.get("payments.limit"), new IntData(10));
+        }
+    }
+
+    @Test
+    public void testGlobMatching() {
+        KeyPattern glob = KeyPattern.glob("feature.*.enabled");
+        assertEquals(glob.literalPrefix, "feature.");
+        assertTrue(glob.matches("feature.checkout.enabled"));
+        assertTrue(glob.matches("feature.a.b.enabled"));
+        assertFalse(glob.matches("feature.checkout.enabledx"));
+        assertTrue(KeyPattern.glob("*_v?").matches("limit_v2"));
+        assertFalse(KeyPattern.glob("*_v?").matches("limit_v12"));
+        assertTrue(KeyPattern.glob("payments.*").matches("payments."));
+    }
+
+    @Test
+    public void testPinnedViewIgnoresLaterUpdates() {
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            Map<String, IData> configs = new HashMap<>();
+            configs.put("a", new IntData(1));
+            configs.put("b", new StringData("one"));
+            client.updateConfigs(configs);
+
+            ConfigView view = client.pin();
+            configs.put("a", new IntData(2));
+            configs.remove("b");
+            client.updateConfigs(configs);
+
+            assertEquals(view.getInt("a", 0), 1);
+            assertEquals(view.getString("b", null), "one");
+            assertEquals(view.getAll(new HashSet<>(Arrays.asList("a", "b", "c"))).size(), 2);
+            assertEquals(view.getVersion() + 1, client.getVersion());
+
+            Map<String, IData> live = client.getAll(new HashSet<>(Arrays.asList("a", "b")));
+            assertEquals(live, Collections.singletonMap("a", new IntData(2)));
+        }
+    }
+
+    @Test
+    public void testStreamingFetcher() throws ExecutionException, InterruptedException {
+        List<Map<String, IData>> responses = new ArrayList<>();
+        IStreamingFetcher fetcher =
+                (context, sink) -> {
+                    responses.remove(0).forEach(sink);
+                    return CompletableFuture.completedFuture(null);
+                };
+        Map<String, IData> configs = new HashMap<>();
+        configs.put("kept", new IntData(1));
+        configs.put("updated", new IntData(1));
+        configs.put("deleted", new IntData(1));
+        responses.add(new HashMap<>(configs));
+        configs.put("kept", new IntData(1));
+        configs.put("updated", new IntData(2));
+        configs.remove("deleted");
+        configs.put("added", new IntData(1));
+        responses.add(configs);
+
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            client.init(Collections::emptyMap, fetcher).get();
+            List<Map<String, DataDelta>> deltas = new ArrayList<>();
+            client.addListener(
+                    this,
+                    new HashSet<>(Arrays.asList("kept", "updated", "deleted", "added")),
+                    deltas::add);
+            IData kept = client.pin().get("kept");
+
+            client.updateContext(Collections.emptyMap()).get();
+            assertEquals(deltas.size(), 2);
+            assertEquals(
+                    deltas.get(1).keySet(),
+                    new HashSet<>(Arrays.asList("updated", "deleted", "added")));
+            assertEquals(client.getAll(configs.keySet()), configs);
+            assertSame(client.pin().get("kept"), kept);
+        }
+    }
+
+    @Test
+    public void testCollectedObserversAreReclaimed() throws InterruptedException {
+        AtomicInteger listenerCount = new AtomicInteger(-1);
+        AtomicInteger calls = new AtomicInteger();
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            client.setMetricsSink(
+                    new IMetricsSink() {
+                        @Override
+                        public void recordListeners(int count, int purged) {
+                            listenerCount.set(count);
+                        }
+                    });
+            Set<String> keys = Collections.singleton("key");
+            // held until the count is checked, so no GC reclaims an observer before
+            List<Object> observers = Collections.synchronizedList(new ArrayList<>());
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] =
+                        new Thread(
+                                () -> {
+                                    for (int j = 0; j < 250; j++) {
+                                        Object observer = new Object();
+                                        observers.add(observer);
+                                        client.addListener(
+                                                observer, keys, deltas -> calls.incrementAndGet());
+                                    }
+                                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            client.addListener(this, keys, deltas -> calls.incrementAndGet());
+            client.addListener(this, keys, deltas -> calls.incrementAndGet());
+            assertEquals(listenerCount.get(), 1002);
+            observers.clear();
+
+            for (int i = 0; i < 500 && listenerCount.get() > 2; i++) {
+                System.gc();
+                Thread.sleep(10);
+                client.removeListeners(null);
+            }
+            assertEquals(listenerCount.get(), 2);
+            client.updateConfigs(Collections.singletonMap("key", new IntData(1)));
+            assertEquals(calls.get(), 2);
+
+            client.removeListeners(this);
+            assertEquals(listenerCount.get(), 0);
+            assertTrue(client.observedKeys.isEmpty());
+        }
+    }
+}
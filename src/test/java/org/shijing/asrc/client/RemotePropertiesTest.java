@@ -1,6 +1,7 @@
 package org.shijing.asrc.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.shijing.asrc.client.model.DataDelta.DeltaType.ADDITION;
 import static org.shijing.asrc.client.model.DataDelta.DeltaType.DELETION;
@@ -15,6 +16,8 @@ import static org.shijing.asrc.client.TestModule.provideContextProvider;
 import static org.shijing.asrc.client.TestModule.provideFetcher;
 
 import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -23,8 +26,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Before;
 import org.junit.Test;
@@ -168,4 +177,337 @@ public class RemotePropertiesTest {
         RemoteProperties.updateConfigs(CONFIGS_FIXTURE);
         assertEquals(calledTimes.get(), 3); // second listener is deactivated.
     }
+
+    @Test
+    public void testUpdateConfigsPublishesNewVersion() {
+        long version = RemoteProperties.getVersion();
+        Map<String, IData> configs = new HashMap<>(CONFIGS_FIXTURE);
+        RemoteProperties.updateConfigs(configs);
+        assertTrue(RemoteProperties.getVersion() > version);
+
+        // later changes to the map handed in are not visible to readers
+        configs.put(CONFIG_INT_123, new IntData(234));
+        assertEquals(RemoteProperties.getInt(CONFIG_INT_123).get(), Integer.valueOf(123));
+    }
+
+    @Test
+    public void testOnlyListenersOfChangedKeysAreCalled() {
+        Object obj = new Object();
+        List<Map<String, DataDelta>> intDeltas = new ArrayList<>();
+        List<Map<String, DataDelta>> stringDeltas = new ArrayList<>();
+        RemoteProperties.addListener(
+                obj, Collections.singleton(CONFIG_INT_123), intDeltas::add);
+        RemoteProperties.addListener(
+                obj, Collections.singleton(CONFIG_STRING_ALICE), stringDeltas::add);
+        assertEquals(intDeltas.size(), 1);
+        assertEquals(stringDeltas.size(), 1);
+
+        Map<String, IData> configs = new HashMap<>(CONFIGS_FIXTURE);
+        configs.put(CONFIG_INT_123, new IntData(234));
+        RemoteProperties.updateConfigs(configs);
+        assertEquals(intDeltas.size(), 2);
+        assertEquals(
+                intDeltas.get(1),
+                Collections.singletonMap(
+                        CONFIG_INT_123, new DataDelta(new IntData(123), new IntData(234), UPDATE)));
+        assertEquals(stringDeltas.size(), 1);
+
+        RemoteProperties.removeListeners(obj);
+        assertTrue(RemoteProperties.OBSERVED_KEYS.isEmpty());
+    }
+
+    @Test
+    public void testPrimitiveGettersAndHandles() {
+        assertEquals(RemoteProperties.getInt(CONFIG_INT_123, 0), 123);
+        assertEquals(RemoteProperties.getInt("test", 234), 234);
+        assertEquals(RemoteProperties.getDouble(CONFIG_DOUBLE_314, 0.0), 3.14, 0.0);
+        assertEquals(RemoteProperties.getDouble("test", 1.2345), 1.2345, 0.0);
+        assertTrue(RemoteProperties.getBoolean(CONFIG_BOOL_TRUE, false));
+        assertTrue(RemoteProperties.getBoolean("test", true));
+
+        PropertyHandle handle = RemoteProperties.getHandle(CONFIG_INT_123);
+        assertTrue(handle.isPresent());
+        assertEquals(handle.getInt(0), 123);
+        assertEquals(handle.getString(null), "123");
+
+        Map<String, IData> configs = new HashMap<>(CONFIGS_FIXTURE);
+        configs.put(CONFIG_INT_123, new IntData(234));
+        RemoteProperties.updateConfigs(configs);
+        assertEquals(handle.getInt(0), 234);
+
+        RemoteProperties.updateConfigs(Collections.emptyMap());
+        assertFalse(handle.isPresent());
+        assertEquals(handle.getInt(-1), -1);
+    }
+
+    @Test
+    public void testDeltaFetcher() throws ExecutionException, InterruptedException {
+        List<String> requestedRevisions = new ArrayList<>();
+        List<ConfigPatch> responses =
+                new ArrayList<>(
+                        Arrays.asList(
+                                ConfigPatch.full("r1", CONFIGS_FIXTURE),
+                                ConfigPatch.notModified(),
+                                ConfigPatch.delta(
+                                        "r2",
+                                        new HashMap<String, DataDelta>() {
+                                            {
+                                                put(
+                                                        CONFIG_INT_123,
+                                                        new DataDelta(
+                                                                null, new IntData(234), UPDATE));
+                                                put(
+                                                        CONFIG_BOOL_TRUE,
+                                                        new DataDelta(null, null, DELETION));
+                                            }
+                                        })));
+        RemoteProperties.setFetcher(
+                new IDeltaFetcher() {
+                    @Override
+                    public CompletableFuture<ConfigPatch> fetchDelta(
+                            Map<String, IData> context, String revision) {
+                        requestedRevisions.add(revision);
+                        return CompletableFuture.completedFuture(responses.remove(0));
+                    }
+
+                    @Override
+                    public CompletableFuture<Map<String, IData>> fetch(
+                            Map<String, IData> context) {
+                        return CompletableFuture.completedFuture(CONFIGS_FIXTURE);
+                    }
+                });
+        RemoteProperties.updateConfigs(Collections.emptyMap());
+
+        List<Map<String, DataDelta>> deltas = new ArrayList<>();
+        RemoteProperties.addListener(this, keys, deltas::add);
+
+        RemoteProperties.updateContext(Collections.emptyMap()).get();
+        assertEquals(deltas.size(), 1);
+        long version = RemoteProperties.getVersion();
+
+        RemoteProperties.updateContext(Collections.emptyMap()).get();
+        assertEquals(RemoteProperties.getVersion(), version);
+
+        RemoteProperties.updateContext(Collections.emptyMap()).get();
+        assertEquals(requestedRevisions, Arrays.asList(null, "r1", "r1"));
+        assertEquals(RemoteProperties.getInt(CONFIG_INT_123, 0), 234);
+        assertFalse(RemoteProperties.getBoolean(CONFIG_BOOL_TRUE).isPresent());
+        assertTrue(RemoteProperties.getBoolean(CONFIG_BOOL_FALSE).isPresent());
+        assertEquals(deltas.size(), 2);
+        assertEquals(
+                deltas.get(1).get(CONFIG_INT_123),
+                new DataDelta(new IntData(123), new IntData(234), UPDATE));
+        assertEquals(
+                deltas.get(1).get(CONFIG_BOOL_TRUE),
+                new DataDelta(BoolData.TRUE, null, DELETION));
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreCoalescedAndOrdered()
+            throws ExecutionException, InterruptedException {
+        List<CompletableFuture<Map<String, IData>>> fetches = new ArrayList<>();
+        RemoteProperties.setFetcher(
+                context -> {
+                    CompletableFuture<Map<String, IData>> fetch = new CompletableFuture<>();
+                    fetches.add(fetch);
+                    return fetch;
+                });
+        Map<String, IData> contextA = Collections.singletonMap("region", new StringData("a"));
+        Map<String, IData> contextB = Collections.singletonMap("region", new StringData("b"));
+
+        CompletableFuture<Void> first = RemoteProperties.updateContext(contextA);
+        CompletableFuture<Void> second = RemoteProperties.updateContext(new HashMap<>(contextA));
+        assertEquals(fetches.size(), 1);
+
+        CompletableFuture<Void> third = RemoteProperties.updateContext(contextB);
+        assertEquals(fetches.size(), 2);
+
+        // the later started fetch completes first, the earlier result must not override it
+        fetches.get(1).complete(Collections.singletonMap(CONFIG_INT_123, new IntData(2)));
+        third.get();
+        fetches.get(0).complete(Collections.singletonMap(CONFIG_INT_123, new IntData(1)));
+        first.get();
+        second.get();
+        assertEquals(RemoteProperties.getInt(CONFIG_INT_123, 0), 2);
+
+        RemoteProperties.updateContext(contextA);
+        assertEquals(fetches.size(), 3);
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws InterruptedException {
+        AtomicInteger fetchTimes = new AtomicInteger(0);
+        RemoteProperties.setFetcher(
+                context -> {
+                    fetchTimes.incrementAndGet();
+                    return CompletableFuture.completedFuture(CONFIGS_FIXTURE);
+                });
+        RemoteProperties.startRefresh(new RefreshPolicy(10, 0.5, 100, TimeUnit.MILLISECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetchTimes.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        RemoteProperties.stopRefresh();
+        assertTrue(fetchTimes.get() >= 3);
+    }
+
+    @Test
+    public void testRefreshPolicyBackoff() {
+        RefreshPolicy policy = new RefreshPolicy(100, 0.2, 1000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.nextDelayMillis(0);
+            assertTrue(delay >= 80 && delay <= 120);
+            delay = policy.nextDelayMillis(2);
+            assertTrue(delay >= 320 && delay <= 480);
+            delay = policy.nextDelayMillis(64);
+            assertTrue(delay >= 800 && delay <= 1200);
+        }
+    }
+
+    @Test
+    public void testAsyncListenerDispatch() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        RemoteProperties.setListenerExecutor(executor);
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {});
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            List<Integer> slowValues = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger fastCalls = new AtomicInteger(0);
+            Set<String> intKey = Collections.singleton(CONFIG_INT_123);
+            RemoteProperties.addListener(
+                    this,
+                    intKey,
+                    deltaMap -> {
+                        awaitQuietly(release);
+                        slowValues.add(deltaMap.get(CONFIG_INT_123).nowData.toInt());
+                    });
+            RemoteProperties.addListener(
+                    this,
+                    intKey,
+                    deltaMap -> {
+                        fastCalls.incrementAndGet();
+                        throw new IllegalStateException("failing listener");
+                    });
+
+            for (int i = 1; i <= 3; i++) {
+                RemoteProperties.updateConfigs(
+                        Collections.singletonMap(CONFIG_INT_123, new IntData(i)));
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (fastCalls.get() < 4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // the throwing listener keeps receiving updates while the slow one is blocked
+            assertEquals(fastCalls.get(), 4);
+            assertTrue(RemoteProperties.getMaxPendingDeliveries() >= 3);
+
+            release.countDown();
+            while (RemoteProperties.getPendingDeliveries() > 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(slowValues, Arrays.asList(123, 1, 2, 3));
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testWarmStartFromSnapshotFile() throws Exception {
+        Path snapshotFile = Files.createTempDirectory("asrc").resolve("snapshot.bin");
+        RemoteProperties.setSnapshotFile(snapshotFile);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.exists(snapshotFile) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.exists(snapshotFile));
+
+        RemoteProperties.reset();
+        CompletableFuture<Map<String, IData>> fetch = new CompletableFuture<>();
+        CompletableFuture<Void> initialized =
+                RemoteProperties.init(provideContextProvider(), context -> fetch, snapshotFile);
+        assertFalse(initialized.isDone());
+        assertEquals(RemoteProperties.getBoolean(CONFIG_BOOL_TRUE).get(), true);
+        assertEquals(RemoteProperties.getBoolean(CONFIG_BOOL_FALSE).get(), false);
+        assertEquals(RemoteProperties.getString(CONFIG_STRING_ALICE).get(), "alice");
+        assertEquals(RemoteProperties.getDouble(CONFIG_DOUBLE_314, 0.0), 3.14, 0.0);
+        assertEquals(RemoteProperties.getInt(CONFIG_INT_123, 0), 123);
+
+        fetch.complete(Collections.singletonMap(CONFIG_INT_123, new IntData(234)));
+        initialized.get();
+        assertEquals(RemoteProperties.getInt(CONFIG_INT_123, 0), 234);
+        assertFalse(RemoteProperties.getString(CONFIG_STRING_ALICE).isPresent());
+    }
+
+    @Test
+    public void testMetricsSink() throws ExecutionException, InterruptedException {
+        AtomicInteger fetches = new AtomicInteger(0);
+        AtomicLong appliedVersion = new AtomicLong(-1);
+        AtomicInteger dispatches = new AtomicInteger(0);
+        AtomicInteger listenerCount = new AtomicInteger(-1);
+        AtomicReference<Map<String, Long>> missCounts = new AtomicReference<>();
+        RemoteProperties.setMetricsSink(
+                new IMetricsSink() {
+                    @Override
+                    public void recordFetch(long nanos, boolean success) {
+                        fetches.incrementAndGet();
+                    }
+
+                    @Override
+                    public void recordApply(long nanos, int size, long version) {
+                        assertEquals(size, CONFIGS_FIXTURE.size());
+                        appliedVersion.set(version);
+                    }
+
+                    @Override
+                    public void recordDispatch(long nanos, boolean success) {
+                        dispatches.incrementAndGet();
+                    }
+
+                    @Override
+                    public void recordListeners(int count, int purged) {
+                        listenerCount.set(count);
+                    }
+
+                    @Override
+                    public void recordMisses(Map<String, Long> counts) {
+                        missCounts.set(counts);
+                    }
+                });
+
+        RemoteProperties.addListener(this, keys, deltaMap -> {});
+        assertEquals(dispatches.get(), 1);
+        assertEquals(listenerCount.get(), 1);
+
+        assertEquals(RemoteProperties.getInt("missing", 1), 1);
+        assertEquals(RemoteProperties.getHandle("missing").getInt(1), 1);
+        assertEquals(RemoteProperties.getInt(CONFIG_INT_123, 0), 123);
+
+        RemoteProperties.updateContext(Collections.emptyMap()).get();
+        assertEquals(fetches.get(), 1);
+        assertEquals(appliedVersion.get(), RemoteProperties.getVersion());
+        assertEquals(missCounts.get(), Collections.singletonMap("missing", 2L));
+
+        // only misses since the previous report are reported
+        missCounts.set(null);
+        RemoteProperties.updateContext(Collections.emptyMap()).get();
+        assertTrue(missCounts.get() == null);
+        assertEquals(RemoteProperties.getInt("missing", 1), 1);
+        RemoteProperties.updateContext(Collections.emptyMap()).get();
+        assertEquals(missCounts.get(), Collections.singletonMap("missing", 1L));
+        assertEquals(RemoteProperties.getMissCounts(), Collections.singletonMap("missing", 3L));
+
+        RemoteProperties.removeListeners(this);
+        assertEquals(listenerCount.get(), 0);
+    }
 }
@@ -0,0 +1,170 @@
+package org.shijing.asrc.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import org.junit.Test;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+
+public class ResilientFetcherTest {
+    private static final Map<String, IData> CONFIGS = Collections.singletonMap("a", new IntData(1));
+
+    private static Throwable failureOf(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("Expected a failure");
+    }
+
+    @Test
+    public void testDeadlineAndCircuitBreaker() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        IFetcher hungFetcher =
+                context -> {
+                    calls.incrementAndGet();
+                    return new CompletableFuture<>();
+                };
+        ResilientFetcher fetcher =
+                new ResilientFetcher(hungFetcher, 20, 0, 2, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(failureOf(fetcher.fetch(CONFIGS)) instanceof TimeoutException);
+        assertTrue(failureOf(fetcher.fetch(CONFIGS)) instanceof TimeoutException);
+        assertEquals(fetcher.getCircuitState(), ResilientFetcher.CircuitState.OPEN);
+        assertTrue(failureOf(fetcher.fetch(CONFIGS)) instanceof IllegalStateException);
+        assertEquals(calls.get(), 2);
+
+        Thread.sleep(150);
+        CompletableFuture<Map<String, IData>> trial = fetcher.fetch(CONFIGS);
+        assertEquals(fetcher.getCircuitState(), ResilientFetcher.CircuitState.HALF_OPEN);
+        assertTrue(failureOf(trial) instanceof TimeoutException);
+        assertEquals(fetcher.getCircuitState(), ResilientFetcher.CircuitState.OPEN);
+        assertEquals(calls.get(), 3);
+    }
+
+    @Test
+    public void testSlowFetchIsHedged() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        IFetcher fetcher =
+                context -> {
+                    // The 20th call hangs, its hedged request answers.
+                    if (calls.incrementAndGet() == 20) {
+                        return new CompletableFuture<>();
+                    }
+                    return CompletableFuture.completedFuture(CONFIGS);
+                };
+        ResilientFetcher resilient = new ResilientFetcher(fetcher, 5, 0.9, 5, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 19; i++) {
+            resilient.fetch(CONFIGS).get();
+        }
+        assertEquals(resilient.fetch(CONFIGS).get(), CONFIGS);
+        assertEquals(calls.get(), 21);
+    }
+
+    @Test
+    public void testBlockingHedgeHoldsUpNoDeadline() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        IFetcher fetcher =
+                context -> {
+                    // The 20th call hangs, its hedged request blocks inside fetch.
+                    int call = calls.incrementAndGet();
+                    if (call == 20) {
+                        return new CompletableFuture<>();
+                    } else if (call == 21) {
+                        blocked.countDown();
+                        try {
+                            unblock.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return CompletableFuture.completedFuture(CONFIGS);
+                };
+        ResilientFetcher resilient = new ResilientFetcher(fetcher, 5, 0.9, 5, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 19; i++) {
+            resilient.fetch(CONFIGS).get();
+        }
+        CompletableFuture<Map<String, IData>> hedged = resilient.fetch(CONFIGS);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        try {
+            ResilientFetcher other =
+                    new ResilientFetcher(
+                            context -> new CompletableFuture<>(), 20, TimeUnit.MILLISECONDS);
+            CompletableFuture<Map<String, IData>> timedOut = other.fetch(CONFIGS);
+            try {
+                timedOut.get(1, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertTrue(timedOut.isCompletedExceptionally());
+        } finally {
+            unblock.countDown();
+        }
+        assertEquals(hedged.get(), CONFIGS);
+    }
+
+    @Test
+    public void testStreamingDelegateIsStreamed() throws Exception {
+        AtomicInteger fetches = new AtomicInteger();
+        IStreamingFetcher streaming =
+                new IStreamingFetcher() {
+                    @Override
+                    public CompletableFuture<Void> fetchStream(
+                            Map<String, IData> context, BiConsumer<String, IData> sink) {
+                        CONFIGS.forEach(sink);
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    @Override
+                    public CompletableFuture<Map<String, IData>> fetch(
+                            Map<String, IData> context) {
+                        fetches.incrementAndGet();
+                        return CompletableFuture.completedFuture(CONFIGS);
+                    }
+                };
+        ResilientFetcher fetcher = new ResilientFetcher(streaming, 1, TimeUnit.SECONDS);
+        assertFalse(fetcher.fetchesDeltas());
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            client.init(Collections::emptyMap, fetcher).get();
+            client.updateContext(Collections.emptyMap()).get();
+            assertEquals(client.getInt("a", 0), 1);
+            assertEquals(fetches.get(), 0);
+        }
+    }
+
+    @Test
+    public void testFailedFetchKeepsLastGoodConfigs() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        IFetcher fetcher =
+                context ->
+                        calls.incrementAndGet() == 1
+                                ? CompletableFuture.completedFuture(CONFIGS)
+                                : new CompletableFuture<>();
+        try (RemotePropertiesClient client = new RemotePropertiesClient()) {
+            assertEquals(client.getStalenessMillis(), -1);
+            client.init(
+                            Collections::emptyMap,
+                            new ResilientFetcher(fetcher, 20, TimeUnit.MILLISECONDS))
+                    .get();
+            Thread.sleep(5);
+            Throwable failure = failureOf(client.updateContext(Collections.emptyMap()));
+            assertTrue(failure instanceof TimeoutException);
+            assertEquals(client.getInt("a", 0), 1);
+            assertTrue(client.getStalenessMillis() >= 5);
+        }
+    }
+}
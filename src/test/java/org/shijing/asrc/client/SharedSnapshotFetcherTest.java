@@ -0,0 +1,134 @@
+package org.shijing.asrc.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.shijing.asrc.client.model.DataDelta;
+import org.shijing.asrc.client.model.IntData;
+
+public class SharedSnapshotFetcherTest {
+    private static final String KEY = "shared.key";
+
+    private static IFetcher fixedFetcher(AtomicInteger value, AtomicInteger fetches) {
+        return context -> {
+            fetches.incrementAndGet();
+            return CompletableFuture.completedFuture(
+                    Collections.singletonMap(KEY, new IntData(value.get())));
+        };
+    }
+
+    /**
+     * Writer process of {@link #testProcessesShareOneFetch()}: shares the value of every line read
+     * from stdin, answers each with a line, and exits once stdin is closed.
+     */
+    public static void main(String[] args) throws Exception {
+        AtomicInteger value = new AtomicInteger();
+        try (SharedSnapshotFetcher fetcher =
+                new SharedSnapshotFetcher(
+                        Paths.get(args[0]), fixedFetcher(value, new AtomicInteger()))) {
+            BufferedReader in =
+                    new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                value.set(Integer.parseInt(line));
+                fetcher.fetch(Collections.emptyMap()).get();
+                System.out.println(fetcher.isWriter());
+                System.out.flush();
+            }
+        }
+    }
+
+    @Test
+    public void testProcessesShareOneFetch() throws Exception {
+        Path file = Files.createTempFile("asrc", ".shared");
+        Process writer =
+                new ProcessBuilder(
+                                Paths.get(System.getProperty("java.home"), "bin", "java")
+                                        .toString(),
+                                "-cp",
+                                System.getProperty("java.class.path"),
+                                SharedSnapshotFetcherTest.class.getName(),
+                                file.toString())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+        AtomicInteger localValue = new AtomicInteger(100);
+        AtomicInteger localFetches = new AtomicInteger();
+        try (Writer toWriter =
+                        new OutputStreamWriter(writer.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader fromWriter =
+                        new BufferedReader(
+                                new InputStreamReader(
+                                        writer.getInputStream(), StandardCharsets.UTF_8));
+                SharedSnapshotFetcher fetcher =
+                        new SharedSnapshotFetcher(file, fixedFetcher(localValue, localFetches));
+                RemotePropertiesClient client = new RemotePropertiesClient()) {
+            toWriter.write("1\n");
+            toWriter.flush();
+            assertEquals(fromWriter.readLine(), "true");
+
+            client.init(Collections::emptyMap, fetcher).get();
+            assertFalse(fetcher.isWriter());
+            assertEquals(client.getInt(KEY, 0), 1);
+            List<Map<String, DataDelta>> deltas = new ArrayList<>();
+            client.addListener(this, Collections.singleton(KEY), deltas::add);
+
+            // polling an unchanged file leaves the configurations in service untouched
+            long version = client.getVersion();
+            client.updateContext(Collections.emptyMap()).get();
+            assertEquals(client.getVersion(), version);
+            assertEquals(deltas.size(), 1);
+
+            toWriter.write("2\n");
+            toWriter.flush();
+            assertEquals(fromWriter.readLine(), "true");
+            client.updateContext(Collections.emptyMap()).get();
+            assertEquals(deltas.size(), 2);
+            assertEquals(deltas.get(1).get(KEY).nowData, new IntData(2));
+            assertEquals(localFetches.get(), 0);
+
+            // the writer exits, this process takes over
+            writer.getOutputStream().close();
+            assertTrue(writer.waitFor(30, TimeUnit.SECONDS));
+            client.updateContext(Collections.emptyMap()).get();
+            assertTrue(fetcher.isWriter());
+            assertEquals(localFetches.get(), 1);
+            assertEquals(client.getInt(KEY, 0), 100);
+        } finally {
+            writer.destroy();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testReaderBeforeFirstWrite() throws Exception {
+        Path file = Files.createTempFile("asrc", ".shared");
+        try (SharedSnapshotFetcher writer =
+                        new SharedSnapshotFetcher(
+                                file, fixedFetcher(new AtomicInteger(7), new AtomicInteger()));
+                SharedSnapshotFetcher reader = new SharedSnapshotFetcher(file, null)) {
+            assertTrue(reader.fetch(Collections.emptyMap()).isCompletedExceptionally());
+            assertTrue(writer.isWriter());
+            writer.fetch(Collections.emptyMap()).get();
+            assertFalse(reader.isWriter());
+            assertEquals(reader.fetch(Collections.emptyMap()).get().get(KEY), new IntData(7));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.shijing.asrc.client.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.shijing.asrc.client.model.DataDelta.DeltaType.ADDITION;
+import static org.shijing.asrc.client.model.DataDelta.DeltaType.DELETION;
+import static org.shijing.asrc.client.model.DataDelta.DeltaType.UPDATE;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class DataCodecTest {
+
+    private static final Map<String, IData> CONFIGS =
+            new HashMap<String, IData>() {
+                {
+                    put("bool_true", BoolData.TRUE);
+                    put("bool_false", BoolData.FALSE);
+                    put("int_zero", new IntData(0));
+                    put("int_negative", new IntData(Integer.MIN_VALUE));
+                    put("int_large", new IntData(Integer.MAX_VALUE));
+                    put("double", new DoubleData(-3.14));
+                    put("string_empty", new StringData(""));
+                    put("string_unicode", new StringData("\u4f60\u597d, world"));
+                    put("string_repeated_1", new StringData("repeated"));
+                    put("string_repeated_2", new StringData("repeated"));
+                    put("json", JsonData.fromString("{\"limits\": [1, 2]}"));
+                }
+            };
+
+    @Test
+    public void testConfigsRoundTrip() {
+        byte[] payload = DataCodec.encode(CONFIGS);
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        assertEquals(DataCodec.decode(buffer), CONFIGS);
+        assertFalse(buffer.hasRemaining());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(payload.length);
+        direct.put(payload).flip();
+        assertEquals(DataCodec.decode(direct), CONFIGS);
+    }
+
+    @Test
+    public void testDecodeLazily() {
+        ByteBuffer buffer = ByteBuffer.wrap(DataCodec.encode(CONFIGS));
+        Map<String, IData> configs = DataCodec.decodeLazily(buffer);
+        assertEquals(buffer.position(), 0);
+        assertEquals(configs.size(), CONFIGS.size());
+        assertTrue(configs.containsKey("double"));
+        assertEquals(configs.get("string_unicode"), new StringData("\u4f60\u597d, world"));
+        assertEquals(configs.get("missing"), null);
+        assertEquals(configs, CONFIGS);
+    }
+
+    @Test
+    public void testDeltasRoundTrip() {
+        Map<String, DataDelta> deltas =
+                new HashMap<String, DataDelta>() {
+                    {
+                        put("added", new DataDelta(null, new StringData("value"), ADDITION));
+                        put("updated", new DataDelta(new IntData(1), new IntData(-2), UPDATE));
+                        put("deleted", new DataDelta(new StringData("value"), null, DELETION));
+                    }
+                };
+        ByteBuffer buffer = ByteBuffer.wrap(DataCodec.encodeDeltas(deltas));
+        assertEquals(DataCodec.decodeDeltas(buffer), deltas);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeRejectsDeltaPayloadAsConfigs() {
+        DataCodec.decode(ByteBuffer.wrap(DataCodec.encodeDeltas(new HashMap<>())));
+    }
+
+    @Test
+    public void testDecodeRejectsCorruptDeltas() {
+        byte[] payload =
+                DataCodec.encodeDeltas(
+                        Collections.singletonMap(
+                                "k", new DataDelta(new IntData(1), new IntData(2), UPDATE)));
+        // version, kind, dictionary of "k", delta count, key index, then the delta type
+        int deltaType = 7;
+        assertEquals(payload[deltaType], (byte) UPDATE.ordinal());
+        assertRejected(payload, deltaType, (byte) DataDelta.DeltaType.values().length);
+        assertRejected(payload, deltaType, (byte) -1);
+        assertRejected(payload, deltaType - 1, (byte) 1);
+    }
+
+    private static void assertRejected(byte[] payload, int index, byte corrupt) {
+        byte[] corrupted = payload.clone();
+        corrupted[index] = corrupt;
+        try {
+            DataCodec.decodeDeltas(ByteBuffer.wrap(corrupted));
+            throw new AssertionError("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
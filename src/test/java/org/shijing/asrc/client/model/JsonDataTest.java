@@ -0,0 +1,74 @@
+package org.shijing.asrc.client.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JsonDataTest {
+    private static final String ROUTES =
+            "{\"routes\": {\"eu\": [{\"host\": \"eu-1\", \"weight\": 0.25},"
+                    + " {\"host\": \"eu\\\"2\\u00e9\", \"weight\": 3}]},"
+                    + " \"enabled\": true, \"limit\": 10000000000, \"none\": null}";
+
+    @Test
+    public void testPathGetters() {
+        JsonData json = JsonData.fromString(ROUTES);
+        assertEquals(json.getType(), IData.DataType.CUSTOMIZED);
+        assertEquals(json.getDouble("routes.eu.0.weight", 0), 0.25, 0);
+        assertEquals(json.getInt("routes.eu.1.weight", 0), 3);
+        assertEquals(json.getString("routes.eu.1.host", null), "eu\"2\u00e9");
+        assertEquals(json.getString("routes.eu.0", null), "{\"host\": \"eu-1\", \"weight\": 0.25}");
+        assertTrue(json.getBoolean("enabled", false));
+        assertEquals(json.getDouble("limit", 0), 1e10, 0);
+
+        assertEquals(json.getInt("routes.eu.2.weight", -1), -1);
+        assertEquals(json.getInt("routes.eu.0.host", -1), -1);
+        assertEquals(json.getString("none", "default"), "default");
+        assertNull(json.get("routes.us"));
+        assertEquals(json.get("routes.eu").asList().size(), 2);
+        assertEquals(json.asMap().keySet().size(), 4);
+    }
+
+    @Test
+    public void testParsedMembersAreCached() {
+        JsonData json = JsonData.fromString(ROUTES);
+        assertSame(json.get("routes.eu.0"), json.get("routes.eu.0"));
+        assertEquals(json, JsonData.fromString(ROUTES));
+        assertEquals(json.hashCode(), JsonData.fromString(ROUTES).hashCode());
+    }
+
+    @Test
+    public void testMalformedJsonFallsBackToDefaults() {
+        JsonData json = JsonData.fromString("{\"a\": [1, 2}");
+        assertFalse(json.isValid());
+        assertEquals(json.getInt("a.0", -1), -1);
+        assertFalse(JsonData.fromString("{\"a\": 1} trailing").isValid());
+        assertTrue(JsonData.fromString(" [] ").isValid());
+
+        JsonData nested = JsonData.fromString("{\"a\": {\"b\": tru}, \"c\": [1, [nul]]}");
+        assertFalse(nested.isValid());
+        assertFalse(JsonData.fromString("[1, [nul]]").isValid());
+        assertTrue(JsonData.fromString("{\"a\": {\"b\": [true, null, \"x\"]}}").isValid());
+    }
+
+    @Test
+    public void testNumbersFollowJsonGrammar() {
+        for (String valid : new String[] {"0", "-0", "12", "-3.5", "1e3", "2.5E-2", "1E+2"}) {
+            assertTrue(valid, JsonData.fromString("[" + valid + "]").isValid());
+        }
+        for (String invalid :
+                new String[] {
+                    "NaN", "Infinity", "-Infinity", "+1", "1d", "0x1F", "01", "-", "1.", ".5",
+                    "1e", "1e+", "1.5f", "- 1"
+                }) {
+            assertFalse(invalid, JsonData.fromString("[" + invalid + "]").isValid());
+            assertFalse(invalid, JsonData.fromString("{\"a\": " + invalid + "}").isValid());
+        }
+        assertEquals(JsonData.fromString("{\"a\": 1d}").getInt("a", 7), 7);
+        assertEquals(JsonData.fromString("{\"a\": -0.25e1}").getDouble("a", 0), -2.5, 0);
+    }
+}
@@ -0,0 +1,46 @@
+package org.shijing.asrc.client.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PrimitiveDataTest {
+
+    @Test
+    public void testValueOfReturnsCanonicalInstances() {
+        assertSame(IntData.valueOf(7), IntData.valueOf(7));
+        assertSame(IntData.fromString("7"), IntData.valueOf(7));
+        assertSame(BoolData.fromString("true"), BoolData.TRUE);
+        assertSame(BoolData.valueOf(false), BoolData.FALSE);
+        assertSame(StringData.valueOf(new String("alice")), StringData.valueOf("alice"));
+        assertNotSame(new StringData("alice"), StringData.valueOf("alice"));
+    }
+
+    @Test
+    public void testNumericStringsConvertOnce() {
+        StringData number = new StringData("42");
+        assertTrue(number.isInt());
+        assertEquals(number.toInt(), 42);
+        assertEquals(number.toDouble(), 42.0, 0);
+        assertSame(number.numeric(), number.numeric());
+
+        StringData ratio = new StringData("0.5");
+        assertFalse(ratio.isInt());
+        assertEquals(ratio.toDouble(), 0.5, 0);
+        assertSame(ratio.numeric(), ratio.numeric());
+
+        StringData text = new StringData("n/a");
+        assertFalse(text.isDouble());
+        try {
+            text.toInt();
+            throw new AssertionError("Expected a NumberFormatException");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+        assertSame(text.numeric(), text.numeric());
+    }
+}
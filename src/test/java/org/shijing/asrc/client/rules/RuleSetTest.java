@@ -0,0 +1,88 @@
+package org.shijing.asrc.client.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.shijing.asrc.client.model.BoolData;
+import org.shijing.asrc.client.model.IData;
+import org.shijing.asrc.client.model.IntData;
+import org.shijing.asrc.client.model.StringData;
+import org.shijing.asrc.client.rules.Condition.Operator;
+
+public class RuleSetTest {
+    private static final String MAX_ITEMS = "max_items";
+    private static final String NEW_CHECKOUT = "new_checkout";
+
+    private static Map<String, IData> context(String country, int age, String userId) {
+        Map<String, IData> context = new HashMap<>();
+        context.put("country", new StringData(country));
+        context.put("age", new IntData(age));
+        context.put("user_id", new StringData(userId));
+        return context;
+    }
+
+    private static RuleSet ruleSet() {
+        Condition inEurope =
+                new Condition(
+                        "country", Operator.IN, new StringData("DE"), new StringData("FR"));
+        IData minor = new IntData(18);
+        Map<String, List<Rule>> rules = new HashMap<>();
+        rules.put(
+                MAX_ITEMS,
+                Arrays.asList(
+                        new Rule(
+                                Arrays.asList(inEurope, new Condition("age", Operator.LT, minor)),
+                                new IntData(5)),
+                        new Rule(Collections.singletonList(inEurope), new IntData(10))));
+        rules.put(
+                NEW_CHECKOUT,
+                Collections.singletonList(
+                        new Rule(
+                                Collections.singletonList(inEurope),
+                                "user_id",
+                                0,
+                                50,
+                                BoolData.TRUE)));
+        Map<String, IData> defaults = new HashMap<>();
+        defaults.put(MAX_ITEMS, new IntData(20));
+        defaults.put(NEW_CHECKOUT, BoolData.FALSE);
+        return new RuleSet(defaults, rules);
+    }
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        RuleSet ruleSet = ruleSet();
+        assertEquals(ruleSet.evaluate(context("DE", 16, "u")).get(MAX_ITEMS), new IntData(5));
+        assertEquals(ruleSet.evaluate(context("FR", 30, "u")).get(MAX_ITEMS), new IntData(10));
+        assertEquals(ruleSet.evaluate(context("US", 16, "u")).get(MAX_ITEMS), new IntData(20));
+        assertEquals(ruleSet.evaluate(Collections.emptyMap()).get(MAX_ITEMS), new IntData(20));
+    }
+
+    @Test
+    public void testPercentageRollout() {
+        RuleSet ruleSet = ruleSet();
+        int enabled = 0;
+        for (int i = 0; i < 1000; i++) {
+            Map<String, IData> context = context("DE", 30, "user" + i);
+            boolean served = ruleSet.evaluate(context).get(NEW_CHECKOUT).toBool();
+            assertEquals(ruleSet.evaluate(context).get(NEW_CHECKOUT).toBool(), served);
+            enabled += served ? 1 : 0;
+            assertFalse(ruleSet.evaluate(context("US", 30, "user" + i)).get(NEW_CHECKOUT).toBool());
+        }
+        assertTrue(enabled > 400 && enabled < 600);
+    }
+
+    @Test
+    public void testIncomparableAttributeDoesNotMatch() {
+        Condition adult = new Condition("age", Operator.GE, new StringData("adult"));
+        assertFalse(adult.matches(Collections.singletonMap("age", new IntData(30))));
+        assertFalse(adult.matches(Collections.emptyMap()));
+    }
+}